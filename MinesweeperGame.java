@@ -1,7 +1,52 @@
 import java.util.Scanner;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+import java.util.Arrays;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 /**
  * COMPLETE MINESWEEPER GAME IN SINGLE FILE
@@ -27,6 +72,40 @@ enum GameState {
     LOST
 }
 
+// Random number generators available for mine placement
+enum RandomStrategy {
+    SPLITTABLE,
+    L64X128,
+    XOSHIRO,
+    THREAD_LOCAL;
+    
+    public RandomGenerator create(long seed) {
+        switch (this) {
+            case SPLITTABLE:
+                return new SplittableRandom(seed);
+            case L64X128:
+                return RandomGeneratorFactory.of("L64X128MixRandom").create(seed);
+            case XOSHIRO:
+                return RandomGeneratorFactory.of("Xoshiro256PlusPlus").create(seed);
+            default:
+                throw new IllegalArgumentException(this + " cannot be seeded");
+        }
+    }
+    
+    public RandomGenerator create() {
+        switch (this) {
+            case SPLITTABLE:
+                return new SplittableRandom();
+            case L64X128:
+                return RandomGeneratorFactory.of("L64X128MixRandom").create();
+            case XOSHIRO:
+                return RandomGeneratorFactory.of("Xoshiro256PlusPlus").create();
+            default:
+                return ThreadLocalRandom.current();
+        }
+    }
+}
+
 // Cell class
 class Cell {
     private boolean isMine;
@@ -149,67 +228,301 @@ class DifficultyFactory {
 }
 
 // Board class
+// Cell state is packed into one byte per square: the low nibble holds the
+// adjacent mine count (0-8) and the upper bits hold the mine/revealed/flagged flags.
 class Board {
-    private Cell[][] grid;
+    static final int COUNT_MASK = 0x0F;
+    static final int MINE = 0x10;
+    static final int REVEALED = 0x20;
+    static final int FLAGGED = 0x40;
+    private static final int WORD_COUNTER_THRESHOLD = 1 << 16;
+    private static final int PARALLEL_CASCADE_THRESHOLD = 1 << 20;
+    
+    private byte[] cells;
+    private int[] worklist = new int[64];
+    private int[] regionOf;
+    private int[] regionStart;
+    private int[] regionCells;
+    private boolean[] regionDirty;
+    private boolean regionIndexEnabled;
+    private BoardRenderer displayRenderer;
+    private int[] changes;
+    private int changeCount;
+    private long changeBase;
+    private List<ChangeCursor> changeCursors;
     private int rows;
     private int cols;
     private int totalMines;
     private int revealedCells;
     private int flaggedCells;
     private boolean hitMine;
+    private int exposedMask;
+    private List<GameEndListener> listeners;
+    private boolean countsReady;
+    private MoveJournal journal;
+    private MoveHistory history;
+    private RandomGenerator pendingRandom;
+    private boolean safeNeighborhood;
+    private boolean noGuess;
+    private ParallelFloodFill parallelFill;
     
     public Board(int rows, int cols, int mines) {
+        this(rows, cols, mines, new SplittableRandom());
+    }
+    
+    public Board(int rows, int cols, int mines, RandomGenerator random) {
         this.rows = rows;
         this.cols = cols;
         this.totalMines = mines;
         this.revealedCells = 0;
         this.flaggedCells = 0;
         this.hitMine = false;
-        initializeBoard();
+        initializeBoard(random);
+    }
+    
+    // Generates on the pool, one task per band of ParallelGeneration.BAND_ROWS
+    // rows. The bands depend only on the board size, so a seeded board comes
+    // out the same whatever the pool's parallelism.
+    Board(int rows, int cols, int mines, RandomGenerator random, ForkJoinPool pool) {
+        this.rows = rows;
+        this.cols = cols;
+        this.totalMines = mines;
+        createGrid();
+        
+        int bandCount = (rows + ParallelGeneration.BAND_ROWS - 1) / ParallelGeneration.BAND_ROWS;
+        int[] bandSizes = new int[bandCount];
+        for (int b = 0; b < bandCount; b++) {
+            bandSizes[b] = (bandEnd(b) - b * ParallelGeneration.BAND_ROWS) * cols;
+        }
+        SplittableRandom root = new SplittableRandom(random.nextLong());
+        int[] bandMines = ParallelGeneration.splitMines(root, bandSizes, mines);
+        
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(bandCount);
+        for (int b = 0; b < bandCount; b++) {
+            int offset = b * ParallelGeneration.BAND_ROWS * cols;
+            int size = bandSizes[b];
+            int count = bandMines[b];
+            SplittableRandom bandRandom = root.split();
+            tasks.add(pool.submit(() -> ParallelGeneration.placeBand(cells, offset, size, count, bandRandom)));
+        }
+        joinAll(tasks);
+        
+        // Counting starts only after every band has its mines, since each band
+        // reads the edge rows of its neighbours
+        tasks.clear();
+        for (int b = 0; b < bandCount; b++) {
+            int rowFrom = b * ParallelGeneration.BAND_ROWS;
+            int rowTo = bandEnd(b);
+            tasks.add(pool.submit(() -> WordAdjacencyCounter.calculateRows(cells, rows, cols, MINE, rowFrom, rowTo)));
+        }
+        joinAll(tasks);
+        countsReady = true;
+    }
+    
+    private int bandEnd(int band) {
+        return Math.min((band + 1) * ParallelGeneration.BAND_ROWS, rows);
+    }
+    
+    private static void joinAll(List<ForkJoinTask<?>> tasks) {
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+    
+    private Board(int rows, int cols, int mines, byte[] cells) {
+        this.rows = rows;
+        this.cols = cols;
+        this.totalMines = mines;
+        this.cells = cells;
+    }
+    
+    // Rebuilds a board from saved state. cells must hold only the mine,
+    // revealed and flagged bits; adjacency counts are filled in on first use.
+    static Board restore(int rows, int cols, int mines, byte[] cells,
+                         int revealedCells, int flaggedCells, boolean hitMine) {
+        Board board = new Board(rows, cols, mines, cells);
+        board.revealedCells = revealedCells;
+        board.flaggedCells = flaggedCells;
+        board.hitMine = hitMine;
+        return board;
+    }
+    
+    // A deferred board places its mines on the first reveal, never on the
+    // clicked square and, when safeNeighborhood is set and the mine count
+    // allows it, never on its neighbours either. Until then it is an empty
+    // grid, which is also a board with correct all-zero counts. A no-guess
+    // board instead takes its layout from NoGuessGenerator.
+    static Board deferred(int rows, int cols, int mines, RandomGenerator random,
+                          boolean safeNeighborhood, boolean noGuess) {
+        Board board = new Board(rows, cols, mines, new byte[rows * cols]);
+        board.pendingRandom = random;
+        board.safeNeighborhood = safeNeighborhood;
+        board.noGuess = noGuess;
+        board.countsReady = true;
+        return board;
+    }
+    
+    public boolean isGenerated() {
+        return pendingRandom == null;
+    }
+    
+    // Whether the layout is one the solver can clear without guessing. A
+    // no-guess board reports false from its first click on if no candidate
+    // passed and it fell back to an ordinary safe-start layout.
+    public boolean isNoGuess() {
+        return noGuess;
+    }
+    
+    private void generateAround(int index) {
+        if (noGuess) {
+            // If no candidate passes, the board falls back to an ordinary
+            // safe-neighbourhood layout rather than failing the click. That
+            // only depends on the seed, so replays still match.
+            try {
+                Board layout = new NoGuessGenerator().generate(rows, cols, totalMines, index, pendingRandom.nextLong());
+                for (int i = 0; i < cells.length; i++) {
+                    cells[i] |= layout.getCellState(i) & MINE;
+                }
+                calculateAdjacentMines();
+                pendingRandom = null;
+                return;
+            } catch (IllegalStateException e) {
+                safeNeighborhood = true;
+                noGuess = false;
+            }
+        }
+        
+        int row = index / cols;
+        int col = index - row * cols;
+        int[] excluded = {index};
+        int neighborhood = (Math.min(row + 1, rows - 1) - Math.max(row - 1, 0) + 1)
+                * (Math.min(col + 1, cols - 1) - Math.max(col - 1, 0) + 1);
+        if (safeNeighborhood && totalMines <= rows * cols - neighborhood) {
+            excluded = new int[neighborhood];
+            int n = 0;
+            for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++) {
+                for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, cols - 1); j++) {
+                    excluded[n++] = i * cols + j;
+                }
+            }
+        }
+        
+        placeMines(pendingRandom, excluded);
+        calculateAdjacentMines();
+        pendingRandom = null;
     }
     
-    private void initializeBoard() {
+    private void initializeBoard(RandomGenerator random) {
         createGrid();
-        placeMines();
+        placeMines(random, new int[0]);
+        calculateAdjacentMines();
+        countsReady = true;
+    }
+    
+    private void ensureAdjacentCounts() {
+        if (!countsReady) {
+            calculateAdjacentMines();
+            countsReady = true;
+        }
+    }
+    
+    // Generation stages rerun in place for benchmarking; each resets the state it rebuilds
+    void resetAndPlaceMines(RandomGenerator random) {
+        Arrays.fill(cells, (byte) 0);
+        regionOf = null;
+        placeMines(random, new int[0]);
+    }
+    
+    void resetAndCalculateAdjacentMines() {
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] &= MINE;
+        }
+        regionOf = null;
         calculateAdjacentMines();
+        countsReady = true;
     }
     
     private void createGrid() {
-        grid = new Cell[rows][cols];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                grid[i][j] = new Cell(false);
+        cells = new byte[rows * cols];
+    }
+    
+    // Floyd's sampling picks exactly k distinct indices with k draws, using the
+    // MINE bit itself as the membership set. Dense boards sample the safe
+    // squares instead so the number of draws never exceeds half the board.
+    // Squares listed in excluded (sorted ascending) never receive a mine.
+    private void placeMines(RandomGenerator random, int[] excluded) {
+        int size = rows * cols - excluded.length;
+        
+        if (totalMines * 2 > size) {
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] |= MINE;
             }
+            for (int index : excluded) {
+                cells[index] &= ~MINE;
+            }
+            sampleCells(random, size - totalMines, false, excluded);
+        } else {
+            sampleCells(random, totalMines, true, excluded);
         }
     }
     
-    private void placeMines() {
-        Random random = new Random();
-        int minesPlaced = 0;
-        
-        while (minesPlaced < totalMines) {
-            int row = random.nextInt(rows);
-            int col = random.nextInt(cols);
-            
-            if (!grid[row][col].isMine()) {
-                grid[row][col] = new Cell(true);
-                minesPlaced++;
+    // Samples from the squares that are not excluded, numbered 0..size-1 in
+    // board order, so the result stays uniform over the allowed squares
+    private void sampleCells(RandomGenerator random, int count, boolean mine, int[] excluded) {
+        int size = rows * cols - excluded.length;
+        for (int j = size - count; j < size; j++) {
+            int index = skipExcluded(random.nextInt(j + 1), excluded);
+            if (((cells[index] & MINE) != 0) == mine) {
+                index = skipExcluded(j, excluded);
+            }
+            if (mine) {
+                cells[index] |= MINE;
+            } else {
+                cells[index] &= ~MINE;
+            }
+        }
+    }
+    
+    private static int skipExcluded(int position, int[] excluded) {
+        for (int index : excluded) {
+            if (position >= index) {
+                position++;
             }
         }
+        return position;
     }
     
+    // Large boards use the word-parallel counter; smaller ones scatter +1 from
+    // every mine into its safe neighbours, so the work is proportional to the
+    // number of mines rather than eight probes per square.
     private void calculateAdjacentMines() {
+        if (cells.length >= WORD_COUNTER_THRESHOLD) {
+            WordAdjacencyCounter.calculate(cells, rows, cols, MINE);
+            return;
+        }
         for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                if (!grid[i][j].isMine()) {
-                    int count = countAdjacentMines(i, j);
-                    grid[i][j].setAdjacentMines(count);
+            int rowStart = Math.max(i - 1, 0);
+            int rowEnd = Math.min(i + 1, rows - 1);
+            int index = i * cols;
+            for (int j = 0; j < cols; j++, index++) {
+                if ((cells[index] & MINE) == 0) continue;
+                
+                int colStart = Math.max(j - 1, 0);
+                int colEnd = Math.min(j + 1, cols - 1);
+                for (int r = rowStart; r <= rowEnd; r++) {
+                    for (int c = colStart; c <= colEnd; c++) {
+                        int neighbor = r * cols + c;
+                        if ((cells[neighbor] & MINE) == 0) {
+                            cells[neighbor]++;
+                        }
+                    }
                 }
             }
         }
     }
     
-    private int countAdjacentMines(int row, int col) {
+    // Reference neighbour scan; SelfTest checks both counters against it
+    int countAdjacentMines(int row, int col) {
         int count = 0;
         for (int i = -1; i <= 1; i++) {
             for (int j = -1; j <= 1; j++) {
@@ -218,7 +531,7 @@ class Board {
                 int newRow = row + i;
                 int newCol = col + j;
                 
-                if (isValidPosition(newRow, newCol) && grid[newRow][newCol].isMine()) {
+                if (isValidPosition(newRow, newCol) && (cells[newRow * cols + newCol] & MINE) != 0) {
                     count++;
                 }
             }
@@ -226,211 +539,4275 @@ class Board {
         return count;
     }
     
-    public void revealCell(int row, int col) {
-        if (!isValidPosition(row, col) || grid[row][col].isRevealed() || grid[row][col].isFlagged()) {
+    public MoveResult revealCell(int row, int col) {
+        int revealedBefore = revealedCells;
+        int flaggedBefore = flaggedCells;
+        boolean hitBefore = hitMine;
+        revealSquare(row, col);
+        return finishMove(revealedBefore, flaggedBefore, hitBefore);
+    }
+    
+    private void revealSquare(int row, int col) {
+        if (!isValidPosition(row, col)) {
+            return;
+        }
+        ensureAdjacentCounts();
+        int index = row * cols + col;
+        if (journal != null) {
+            journal.record(index, MoveJournal.REVEAL);
+        }
+        if ((cells[index] & (REVEALED | FLAGGED)) != 0) {
             return;
         }
+        if (pendingRandom != null) {
+            generateAround(index);
+        }
+        if (history != null) {
+            history.beginMove(MoveHistory.REVEAL, hitMine);
+        }
         
-        grid[row][col].reveal();
+        cells[index] |= REVEALED;
         revealedCells++;
+        recordChange(index);
         
-        if (grid[row][col].isMine()) {
+        if ((cells[index] & MINE) != 0) {
             hitMine = true;
             return;
         }
         
-        if (grid[row][col].getAdjacentMines() == 0) {
-            revealAdjacentCells(row, col);
+        if ((cells[index] & COUNT_MASK) == 0) {
+            revealRegion(index);
         }
     }
     
-    private void revealAdjacentCells(int row, int col) {
-        for (int i = -1; i <= 1; i++) {
-            for (int j = -1; j <= 1; j++) {
-                if (i == 0 && j == 0) continue;
-                
-                int newRow = row + i;
-                int newCol = col + j;
-                
-                if (isValidPosition(newRow, newCol) && 
-                    !grid[newRow][newCol].isRevealed() && 
-                    !grid[newRow][newCol].isFlagged()) {
-                    revealCell(newRow, newCol);
-                }
-            }
-        }
+    // Labels every zero region on the first cascade so later clicks reveal a
+    // stored list. That first pass is O(rows * cols) and the index costs about
+    // 8 bytes per square, while a region is normally revealed only once, so
+    // it loses to the flood fill and is off by default. Kept so BoardBenchmark
+    // can compare the two.
+    void setZeroRegionIndex(boolean enabled) {
+        regionIndexEnabled = enabled;
+        regionOf = null;
     }
     
-    public void toggleFlag(int row, int col) {
-        if (isValidPosition(row, col) && !grid[row][col].isRevealed()) {
-            grid[row][col].toggleFlag();
-            if (grid[row][col].isFlagged()) {
-                flaggedCells++;
-            } else {
-                flaggedCells--;
+    // With the index on, a zero region that has never had a flag on one of its
+    // zero squares is either entirely hidden or entirely revealed, so clicking
+    // it can reveal the precomputed cell list directly. Everything else uses
+    // the flood fill.
+    private void revealRegion(int start) {
+        if (parallelFill != null && cells.length >= PARALLEL_CASCADE_THRESHOLD) {
+            boolean tracked = history != null || changes != null;
+            revealedCells += parallelFill.fill(cells, start, tracked ? this::recordChange : null);
+            return;
+        }
+        if (!regionIndexEnabled) {
+            floodFill(start);
+            return;
+        }
+        if (regionOf == null) {
+            buildZeroRegions();
+        }
+        int region = regionOf[start] - 1;
+        if (regionDirty[region]) {
+            floodFill(start);
+            return;
+        }
+        
+        for (int k = regionStart[region]; k < regionStart[region + 1]; k++) {
+            int index = regionCells[k];
+            if ((cells[index] & (REVEALED | FLAGGED)) == 0) {
+                cells[index] |= REVEALED;
+                revealedCells++;
+                recordChange(index);
             }
         }
     }
     
-    public void revealAll() {
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                grid[i][j].setRevealed(true);
+    // Labels each 8-connected group of zero squares and lists its squares plus
+    // the numbered squares on its border. Border squares can belong to several
+    // regions; regionOf holds -(region + 1) for them only while that region is
+    // being collected, which is enough to keep each list free of duplicates.
+    private void buildZeroRegions() {
+        regionOf = new int[cells.length];
+        regionStart = new int[16];
+        regionCells = new int[64];
+        int regionCount = 0;
+        int size = 0;
+        
+        for (int seed = 0; seed < cells.length; seed++) {
+            if ((cells[seed] & (MINE | COUNT_MASK)) != 0 || regionOf[seed] > 0) continue;
+            
+            int label = regionCount + 1;
+            if (regionCount + 1 == regionStart.length) {
+                regionStart = Arrays.copyOf(regionStart, regionStart.length * 2);
+            }
+            regionStart[regionCount] = size;
+            regionOf[seed] = label;
+            int scan = size;
+            regionCells = ensureCapacity(regionCells, size + 1);
+            regionCells[size++] = seed;
+            
+            while (scan < size) {
+                int index = regionCells[scan++];
+                if ((cells[index] & COUNT_MASK) != 0) continue;
+                
+                int row = index / cols;
+                int col = index - row * cols;
+                int rowEnd = Math.min(row + 1, rows - 1);
+                int colStart = Math.max(col - 1, 0);
+                int colEnd = Math.min(col + 1, cols - 1);
+                
+                for (int i = Math.max(row - 1, 0); i <= rowEnd; i++) {
+                    for (int j = colStart; j <= colEnd; j++) {
+                        int neighbor = i * cols + j;
+                        if (regionOf[neighbor] == label || regionOf[neighbor] == -label) continue;
+                        
+                        regionOf[neighbor] = (cells[neighbor] & COUNT_MASK) == 0 ? label : -label;
+                        regionCells = ensureCapacity(regionCells, size + 1);
+                        regionCells[size++] = neighbor;
+                    }
+                }
+            }
+            regionCount++;
+        }
+        regionStart[regionCount] = size;
+        
+        regionDirty = new boolean[regionCount];
+        for (int i = 0; i < cells.length; i++) {
+            if (regionOf[i] > 0 && (cells[i] & FLAGGED) != 0) {
+                regionDirty[regionOf[i] - 1] = true;
             }
         }
     }
     
-    public boolean hasHitMine() {
-        return hitMine;
+    private static int[] ensureCapacity(int[] array, int capacity) {
+        if (capacity <= array.length) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(capacity, array.length * 2));
     }
     
-    public boolean isAllSafeCellsRevealed() {
-        int safeCells = (rows * cols) - totalMines;
-        return revealedCells == safeCells;
+    // Iterative cascade from a zero square. Squares are marked revealed when
+    // they are discovered, so each zero square enters the worklist at most once.
+    private void floodFill(int start) {
+        worklist[0] = start;
+        revealedCells += cascade(1);
     }
     
-    public int getRemainingMines() {
-        return totalMines - flaggedCells;
+    // Drains the first top entries of the worklist, revealing their hidden
+    // neighbours, and returns how many squares it revealed
+    private int cascade(int top) {
+        int[] stack = worklist;
+        int revealed = 0;
+        
+        while (top > 0) {
+            int index = stack[--top];
+            int row = index / cols;
+            int col = index - row * cols;
+            int rowEnd = Math.min(row + 1, rows - 1);
+            int colStart = Math.max(col - 1, 0);
+            int colEnd = Math.min(col + 1, cols - 1);
+            
+            for (int i = Math.max(row - 1, 0); i <= rowEnd; i++) {
+                for (int j = colStart; j <= colEnd; j++) {
+                    int neighbor = i * cols + j;
+                    if ((cells[neighbor] & (REVEALED | FLAGGED)) != 0) continue;
+                    
+                    cells[neighbor] |= REVEALED;
+                    revealed++;
+                    recordChange(neighbor);
+                    
+                    if ((cells[neighbor] & COUNT_MASK) == 0) {
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, Math.min(stack.length * 2, cells.length));
+                            worklist = stack;
+                        }
+                        stack[top++] = neighbor;
+                    }
+                }
+            }
+        }
+        return revealed;
     }
     
-    private boolean isValidPosition(int row, int col) {
-        return row >= 0 && row < rows && col >= 0 && col < cols;
+    // Chording: on a revealed number with that many flags around it, reveals
+    // every other hidden neighbour. All neighbours are revealed first and the
+    // zero squares among them seed one shared cascade, so the counters, the
+    // mine check and the undo history are updated once for the whole chord.
+    public MoveResult chordCell(int row, int col) {
+        int revealedBefore = revealedCells;
+        int flaggedBefore = flaggedCells;
+        boolean hitBefore = hitMine;
+        chordSquare(row, col);
+        return finishMove(revealedBefore, flaggedBefore, hitBefore);
     }
     
-    public String display() {
-        StringBuilder sb = new StringBuilder();
+    private void chordSquare(int row, int col) {
+        if (!isValidPosition(row, col)) {
+            return;
+        }
+        ensureAdjacentCounts();
+        int index = row * cols + col;
+        if (journal != null) {
+            journal.record(index, MoveJournal.CHORD);
+        }
+        int count = cells[index] & COUNT_MASK;
+        if ((cells[index] & REVEALED) == 0 || (cells[index] & MINE) != 0 || count == 0) {
+            return;
+        }
         
-        // Column numbers
-        sb.append("   ");
-        for (int j = 0; j < cols; j++) {
-            sb.append(String.format("%2d ", j));
+        int rowEnd = Math.min(row + 1, rows - 1);
+        int colStart = Math.max(col - 1, 0);
+        int colEnd = Math.min(col + 1, cols - 1);
+        int flags = 0;
+        int hidden = 0;
+        for (int i = Math.max(row - 1, 0); i <= rowEnd; i++) {
+            for (int j = colStart; j <= colEnd; j++) {
+                byte cell = cells[i * cols + j];
+                if ((cell & FLAGGED) != 0) {
+                    flags++;
+                } else if ((cell & REVEALED) == 0) {
+                    hidden++;
+                }
+            }
+        }
+        if (flags != count || hidden == 0) {
+            return;
         }
-        sb.append("\n");
         
-        for (int i = 0; i < rows; i++) {
-            sb.append(String.format("%2d ", i)); // Row numbers
-            
-            for (int j = 0; j < cols; j++) {
-                Cell cell = grid[i][j];
+        if (history != null) {
+            history.beginMove(MoveHistory.REVEAL, hitMine);
+        }
+        int revealed = 0;
+        int top = 0;
+        boolean hit = false;
+        for (int i = Math.max(row - 1, 0); i <= rowEnd; i++) {
+            for (int j = colStart; j <= colEnd; j++) {
+                int neighbor = i * cols + j;
+                if ((cells[neighbor] & (REVEALED | FLAGGED)) != 0) continue;
                 
-                if (cell.isFlagged()) {
-                    sb.append(" F ");
-                } else if (!cell.isRevealed()) {
-                    sb.append(" ■ ");
-                } else if (cell.isMine()) {
-                    sb.append(" * ");
-                } else if (cell.getAdjacentMines() > 0) {
-                    sb.append(String.format(" %d ", cell.getAdjacentMines()));
-                } else {
-                    sb.append(" . ");
+                cells[neighbor] |= REVEALED;
+                revealed++;
+                recordChange(neighbor);
+                if ((cells[neighbor] & MINE) != 0) {
+                    hit = true;
+                } else if ((cells[neighbor] & COUNT_MASK) == 0) {
+                    worklist[top++] = neighbor;
+                }
+            }
+        }
+        if (!hit) {
+            revealed += cascade(top);
+        }
+        revealedCells += revealed;
+        hitMine |= hit;
+    }
+    
+    public MoveResult toggleFlag(int row, int col) {
+        int revealedBefore = revealedCells;
+        int flaggedBefore = flaggedCells;
+        boolean hitBefore = hitMine;
+        toggleFlagSquare(row, col);
+        return finishMove(revealedBefore, flaggedBefore, hitBefore);
+    }
+    
+    private void toggleFlagSquare(int row, int col) {
+        if (isValidPosition(row, col)) {
+            int index = row * cols + col;
+            if (journal != null) {
+                journal.record(index, MoveJournal.FLAG);
+            }
+            if ((cells[index] & REVEALED) == 0) {
+                if (history != null) {
+                    history.beginMove(MoveHistory.FLAG, hitMine);
                 }
+                toggleFlagState(index);
+                recordChange(index);
             }
-            sb.append("\n");
+        }
+    }
+    
+    // Sums up what a move changed and, if it ended the game, tells the listeners
+    private MoveResult finishMove(int revealedBefore, int flaggedBefore, boolean hitBefore) {
+        boolean wasOver = hitBefore || revealedBefore == cells.length - totalMines;
+        boolean won = !wasOver && !hitMine && isAllSafeCellsRevealed();
+        boolean lost = !wasOver && hitMine;
+        int revealed = revealedCells - revealedBefore;
+        int flagsDelta = flaggedCells - flaggedBefore;
+        if (revealed == 0 && flagsDelta == 0 && !won && !lost) {
+            return MoveResult.NONE;
         }
         
-        return sb.toString();
+        if ((won || lost) && listeners != null) {
+            GameState result = won ? GameState.WON : GameState.LOST;
+            for (GameEndListener listener : listeners) {
+                listener.gameEnded(this, result);
+            }
+        }
+        return new MoveResult(revealed, hitMine && !hitBefore, won, flagsDelta);
     }
-}
-
-// Builder Pattern
-class BoardBuilder {
-    private int rows;
-    private int cols;
-    private int mines;
-    private GameDifficulty difficulty;
     
-    public BoardBuilder() {
-        this.rows = 8;
-        this.cols = 8;
-        this.mines = 10;
-        this.difficulty = GameDifficulty.BEGINNER;
+    // Called once, from the move that wins or loses the game
+    public void addGameEndListener(GameEndListener listener) {
+        if (listeners == null) {
+            listeners = new ArrayList<>();
+        }
+        listeners.add(listener);
     }
     
-    public BoardBuilder setRows(int rows) {
-        this.rows = rows;
-        return this;
+    // Shows every square from now on without touching the squares themselves;
+    // the accessors below merge the REVEALED bit in when they read a square
+    public void revealAll() {
+        exposedMask = REVEALED;
+        overflowChanges();
     }
     
-    public BoardBuilder setCols(int cols) {
-        this.cols = cols;
-        return this;
+    // Cascades on boards of a million squares or more are spread over the
+    // pool instead of using the zero-region index; null turns this off
+    public void setParallelCascade(ForkJoinPool pool) {
+        parallelFill = pool == null ? null : new ParallelFloodFill(rows, cols, pool);
     }
     
-    public BoardBuilder setMines(int mines) {
-        this.mines = mines;
-        return this;
+    // Every reveal and flag toggle on a valid square is appended to the journal
+    void setJournal(MoveJournal journal) {
+        this.journal = journal;
     }
     
-    public BoardBuilder setDifficulty(GameDifficulty difficulty) {
-        this.difficulty = difficulty;
-        // Set appropriate dimensions based on difficulty
-        switch (difficulty) {
-            case BEGINNER:
-                this.rows = 8; this.cols = 8; this.mines = 10;
-                break;
-            case INTERMEDIATE:
-                this.rows = 16; this.cols = 16; this.mines = 40;
-                break;
-            case EXPERT:
-                this.rows = 16; this.cols = 30; this.mines = 99;
-                break;
-        }
-        return this;
+    // Undo keeps, per move, only the squares that move changed
+    public void setUndoEnabled(boolean enabled) {
+        history = enabled ? new MoveHistory() : null;
     }
     
-    public Board build() {
-        validateParameters();
-        return new Board(rows, cols, mines);
+    public boolean undo() {
+        if (history == null || !history.canUndo()) {
+            return false;
+        }
+        if (journal != null) {
+            journal.record(-1, MoveJournal.UNDO);
+        }
+        if (exposedMask != 0) {
+            exposedMask = 0;
+            overflowChanges();
+        }
+        int move = history.undoMove();
+        boolean reveal = history.kind(move) == MoveHistory.REVEAL;
+        for (int k = history.start(move); k < history.end(move); k++) {
+            int index = history.changedAt(k);
+            if (reveal) {
+                cells[index] &= ~REVEALED;
+                revealedCells--;
+            } else {
+                toggleFlagState(index);
+            }
+            trackChange(index);
+        }
+        hitMine = history.hitMineBefore(move);
+        return true;
     }
     
-    private void validateParameters() {
-        if (rows <= 0 || cols <= 0) {
-            throw new IllegalArgumentException("Rows and columns must be positive");
+    public boolean redo() {
+        if (history == null || !history.canRedo()) {
+            return false;
         }
-        if (mines <= 0 || mines >= rows * cols) {
-            throw new IllegalArgumentException("Invalid number of mines");
+        if (journal != null) {
+            journal.record(-1, MoveJournal.REDO);
+        }
+        int move = history.redoMove();
+        boolean reveal = history.kind(move) == MoveHistory.REVEAL;
+        boolean hit = history.hitMineBefore(move);
+        for (int k = history.start(move); k < history.end(move); k++) {
+            int index = history.changedAt(k);
+            if (reveal) {
+                cells[index] |= REVEALED;
+                revealedCells++;
+                hit |= (cells[index] & MINE) != 0;
+            } else {
+                toggleFlagState(index);
+            }
+            trackChange(index);
         }
+        hitMine = hit;
+        return true;
     }
-}
-
-// Singleton Pattern
-class GameManager {
-    private static GameManager instance;
-    private Board board;
-    private GameState gameState;
-    private Scanner scanner;
     
-    private GameManager() {
-        this.scanner = new Scanner(System.in);
-        this.gameState = GameState.NOT_STARTED;
+    private void toggleFlagState(int index) {
+        cells[index] ^= FLAGGED;
+        if ((cells[index] & FLAGGED) != 0) {
+            flaggedCells++;
+            if (regionOf != null && regionOf[index] > 0) {
+                regionDirty[regionOf[index] - 1] = true;
+            }
+        } else {
+            flaggedCells--;
+        }
     }
     
-    public static GameManager getInstance() {
-        if (instance == null) {
-            instance = new GameManager();
+    // Change tracking records the index of every square a move touches so a
+    // renderer can redraw, or a solver re-examine, only those. Each reader
+    // gets its own cursor into the log. The log keeps what the slowest reader
+    // has not consumed, up to a cap; a reader that falls further behind is
+    // told it overflowed and should repaint or rescan everything.
+    public ChangeCursor openChangeCursor() {
+        if (changes == null) {
+            changes = new int[Math.max(64, cells.length / 8)];
+            changeCursors = new ArrayList<>();
         }
-        return instance;
+        ChangeCursor cursor = new ChangeCursor(changeBase + changeCount);
+        changeCursors.add(cursor);
+        return cursor;
     }
     
-    public void startGame() {
-        System.out.println("🎮 Welcome to Minesweeper!");
-        System.out.println("DESIGN PATTERNS USED:");
-        System.out.println("1. Singleton - GameManager");
-        System.out.println("2. Builder - BoardBuilder");
-        System.out.println("3. Abstract Factory - CellFactory");
-        System.out.println("4. Prototype - CellPrototype");
-        
-        GameDifficulty difficulty = chooseDifficulty();
-        
-        this.board = new BoardBuilder()
-                .setDifficulty(difficulty)
-                .build();
-        
-        this.gameState = GameState.PLAYING;
-        playGame();
+    private void recordChange(int index) {
+        if (history != null) {
+            history.add(index);
+        }
+        trackChange(index);
     }
     
-    private GameDifficulty chooseDifficulty() {
+    private void trackChange(int index) {
+        if (changes == null || changeCursors.isEmpty()) return;
+        if (changeCount == changes.length) {
+            compactChanges();
+            if (changeCount == changes.length) {
+                overflowChanges();
+            }
+        }
+        changes[changeCount++] = index;
+    }
+    
+    // Drops the entries every reader has already consumed
+    private void compactChanges() {
+        long oldest = changeBase + changeCount;
+        for (ChangeCursor cursor : changeCursors) {
+            if (!cursor.overflowed) {
+                oldest = Math.min(oldest, cursor.position);
+            }
+        }
+        int drop = (int) (oldest - changeBase);
+        System.arraycopy(changes, drop, changes, 0, changeCount - drop);
+        changeCount -= drop;
+        changeBase = oldest;
+    }
+    
+    // Every reader has to start over from the board itself
+    private void overflowChanges() {
+        if (changes == null) return;
+        for (ChangeCursor cursor : changeCursors) {
+            cursor.overflowed = true;
+        }
+        changeBase += changeCount;
+        changeCount = 0;
+    }
+    
+    // One reader's position in the change log
+    class ChangeCursor {
+        private long position;
+        private boolean overflowed;
+        
+        private ChangeCursor(long position) {
+            this.position = position;
+        }
+        
+        boolean hasOverflowed() {
+            return overflowed;
+        }
+        
+        // Changes not yet consumed; none once the cursor has overflowed
+        int size() {
+            return overflowed ? 0 : (int) (changeBase + changeCount - position);
+        }
+        
+        int get(int k) {
+            return changes[(int) (position - changeBase) + k];
+        }
+        
+        // Marks everything up to now as consumed
+        void clear() {
+            position = changeBase + changeCount;
+            overflowed = false;
+        }
+        
+        void close() {
+            changeCursors.remove(this);
+        }
+    }
+    
+    // Builds a detached Cell view of a square; changes to it do not affect the board
+    public Cell getCell(int row, int col) {
+        if (!isValidPosition(row, col)) {
+            throw new IllegalArgumentException("Invalid position: " + row + ", " + col);
+        }
+        ensureAdjacentCounts();
+        int state = cells[row * cols + col] | exposedMask;
+        Cell cell = new Cell((state & MINE) != 0);
+        cell.setRevealed((state & REVEALED) != 0);
+        cell.setFlagged((state & FLAGGED) != 0);
+        cell.setAdjacentMines(state & COUNT_MASK);
+        return cell;
+    }
+    
+    // Packed state of a square addressed by row * cols + col
+    int getCellState(int index) {
+        ensureAdjacentCounts();
+        return cells[index] | exposedMask;
+    }
+    
+    // State as the player sees it: hidden squares expose only their flag bit
+    int getVisibleState(int index) {
+        ensureAdjacentCounts();
+        int state = cells[index] | exposedMask;
+        return (state & REVEALED) != 0 ? state : state & FLAGGED;
+    }
+    
+    public boolean hasHitMine() {
+        return hitMine;
+    }
+    
+    public boolean isAllSafeCellsRevealed() {
+        int safeCells = (rows * cols) - totalMines;
+        return revealedCells == safeCells;
+    }
+    
+    public int getRemainingMines() {
+        return totalMines - flaggedCells;
+    }
+    
+    public int getTotalMines() {
+        return totalMines;
+    }
+    
+    int getRevealedCells() {
+        return revealedCells;
+    }
+    
+    int getFlaggedCells() {
+        return flaggedCells;
+    }
+    
+    public int getRows() {
+        return rows;
+    }
+    
+    public int getCols() {
+        return cols;
+    }
+    
+    private boolean isValidPosition(int row, int col) {
+        return row >= 0 && row < rows && col >= 0 && col < cols;
+    }
+    
+    // Whole board as text, through a BoardRenderer kept for reuse
+    public String display() {
+        if (displayRenderer == null) {
+            displayRenderer = new BoardRenderer(this);
+        }
+        int length = displayRenderer.render();
+        return new String(displayRenderer.getBuffer(), 0, length, StandardCharsets.UTF_8);
+    }
+}
+
+// Move result
+// What one reveal, chord or flag toggle changed. Moves that change nothing
+// share a single instance.
+class MoveResult {
+    static final MoveResult NONE = new MoveResult(0, false, false, 0);
+    
+    private final int revealedCells;
+    private final boolean mineHit;
+    private final boolean won;
+    private final int flagsDelta;
+    
+    MoveResult(int revealedCells, boolean mineHit, boolean won, int flagsDelta) {
+        this.revealedCells = revealedCells;
+        this.mineHit = mineHit;
+        this.won = won;
+        this.flagsDelta = flagsDelta;
+    }
+    
+    public int getRevealedCells() {
+        return revealedCells;
+    }
+    
+    public boolean isMineHit() {
+        return mineHit;
+    }
+    
+    public boolean isWon() {
+        return won;
+    }
+    
+    // +1 when a flag was placed, -1 when one was removed
+    public int getFlagsDelta() {
+        return flagsDelta;
+    }
+}
+
+// Notified by Board when a move wins or loses the game
+interface GameEndListener {
+    void gameEnded(Board board, GameState result);
+}
+
+// Renderer
+// Produces the same text as Board.display() as UTF-8 bytes in a buffer that
+// is sized once per board, so rendering a frame allocates nothing.
+class BoardRenderer {
+    private static final byte[][] TOKENS = new byte[128][];
+    
+    static {
+        for (int state = 0; state < TOKENS.length; state++) {
+            String token;
+            if ((state & Board.FLAGGED) != 0) {
+                token = " F ";
+            } else if ((state & Board.REVEALED) == 0) {
+                token = " ■ ";
+            } else if ((state & Board.MINE) != 0) {
+                token = " * ";
+            } else if ((state & Board.COUNT_MASK) > 0) {
+                token = " " + (state & Board.COUNT_MASK) + " ";
+            } else {
+                token = " . ";
+            }
+            TOKENS[state] = token.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+    
+    private final Board board;
+    private final byte[] header;
+    private final byte[][] rowLabels;
+    private final byte[] buffer;
+    private int length;
+    
+    public BoardRenderer(Board board) {
+        this.board = board;
+        
+        StringBuilder sb = new StringBuilder("   ");
+        for (int j = 0; j < board.getCols(); j++) {
+            sb.append(String.format("%2d ", j));
+        }
+        sb.append("\n");
+        this.header = sb.toString().getBytes(StandardCharsets.UTF_8);
+        
+        int capacity = header.length;
+        this.rowLabels = new byte[board.getRows()][];
+        for (int i = 0; i < rowLabels.length; i++) {
+            rowLabels[i] = String.format("%2d ", i).getBytes(StandardCharsets.UTF_8);
+            capacity += rowLabels[i].length + board.getCols() * maxTokenLength() + 1;
+        }
+        this.buffer = new byte[capacity];
+    }
+    
+    private static int maxTokenLength() {
+        int max = 0;
+        for (byte[] token : TOKENS) {
+            max = Math.max(max, token.length);
+        }
+        return max;
+    }
+    
+    // Renders the current board state and returns the number of bytes written
+    public int render() {
+        int cols = board.getCols();
+        int pos = header.length;
+        System.arraycopy(header, 0, buffer, 0, pos);
+        
+        int index = 0;
+        for (int i = 0; i < rowLabels.length; i++) {
+            byte[] label = rowLabels[i];
+            System.arraycopy(label, 0, buffer, pos, label.length);
+            pos += label.length;
+            
+            for (int j = 0; j < cols; j++, index++) {
+                byte[] token = TOKENS[board.getCellState(index)];
+                for (int k = 0; k < token.length; k++) {
+                    buffer[pos++] = token[k];
+                }
+            }
+            buffer[pos++] = '\n';
+        }
+        
+        length = pos;
+        return pos;
+    }
+    
+    // Pre-encoded UTF-8 text for a packed square state
+    static byte[] token(int state) {
+        return TOKENS[state];
+    }
+    
+    public byte[] getBuffer() {
+        return buffer;
+    }
+    
+    public int getLength() {
+        return length;
+    }
+    
+    public void writeTo(OutputStream out) throws IOException {
+        render();
+        out.write(buffer, 0, length);
+    }
+}
+
+// Terminal renderer
+// Paints the board once, then redraws only the squares the last moves touched
+// using ANSI cursor positioning. The board occupies the top of the screen and
+// the "Mines left" line sits directly below it.
+class AnsiBoardRenderer {
+    private static final byte[] CLEAR_SCREEN = "\033[H\033[2J".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLEAR_BELOW = "\033[J".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLEAR_LINE = "\033[2K".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MINES_LEFT = "Mines left: ".getBytes(StandardCharsets.US_ASCII);
+    
+    private final Board board;
+    private final Board.ChangeCursor changes;
+    private final BoardRenderer fullRenderer;
+    private final int[] rowLabelWidths;
+    private byte[] buffer = new byte[256];
+    private int length;
+    private boolean fullRepaint = true;
+    
+    public AnsiBoardRenderer(Board board) {
+        this.board = board;
+        this.fullRenderer = new BoardRenderer(board);
+        this.rowLabelWidths = new int[board.getRows()];
+        for (int i = 0; i < rowLabelWidths.length; i++) {
+            rowLabelWidths[i] = Math.max(2, Integer.toString(i).length()) + 1;
+        }
+        this.changes = board.openChangeCursor();
+    }
+    
+    // Forces the next frame to repaint the whole screen, e.g. after a terminal resize
+    public void requestFullRepaint() {
+        fullRepaint = true;
+    }
+    
+    public void writeFrame(OutputStream out) throws IOException {
+        length = 0;
+        if (fullRepaint || changes.hasOverflowed()) {
+            append(CLEAR_SCREEN);
+            int n = fullRenderer.render();
+            append(fullRenderer.getBuffer(), n);
+            fullRepaint = false;
+        } else {
+            int cols = board.getCols();
+            for (int k = 0; k < changes.size(); k++) {
+                int index = changes.get(k);
+                int row = index / cols;
+                int col = index - row * cols;
+                moveCursor(row + 2, rowLabelWidths[row] + col * 3 + 1);
+                append(BoardRenderer.token(board.getCellState(index)));
+            }
+            moveCursor(board.getRows() + 2, 1);
+            append(CLEAR_LINE);
+        }
+        changes.clear();
+        
+        append(MINES_LEFT);
+        appendInt(board.getRemainingMines());
+        append((byte) '\n');
+        append(CLEAR_BELOW);
+        out.write(buffer, 0, length);
+        out.flush();
+    }
+    
+    private void moveCursor(int line, int column) {
+        append((byte) '\033');
+        append((byte) '[');
+        appendInt(line);
+        append((byte) ';');
+        appendInt(column);
+        append((byte) 'H');
+    }
+    
+    private void appendInt(int value) {
+        if (value < 0) {
+            append((byte) '-');
+            value = -value;
+        }
+        int start = length;
+        do {
+            append((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+    }
+    
+    private void append(byte[] bytes) {
+        append(bytes, bytes.length);
+    }
+    
+    private void append(byte[] bytes, int count) {
+        if (length + count > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+        }
+        System.arraycopy(bytes, 0, buffer, length, count);
+        length += count;
+    }
+    
+    private void append(byte b) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = b;
+    }
+}
+
+// Word-parallel adjacency counter
+// Treats the mine layout as byte rows and adds shifted 8-byte words, so every
+// long operation counts eight squares at once. Counts never exceed 9, so the
+// byte lanes cannot carry into each other.
+class WordAdjacencyCounter {
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long LANE_MASK = 0xFFL;
+    
+    // Expects every count nibble to be zero; fills in the count of every safe
+    // square and leaves the other state bits untouched
+    static void calculate(byte[] cells, int rows, int cols, int mineBit) {
+        calculateRows(cells, rows, cols, mineBit, 0, rows);
+    }
+    
+    // Same for rows [rowFrom, rowTo) only. The rows just outside the band are
+    // copied in as halo rows and only their mine bits are read, so bands that
+    // share no rows can be counted at the same time.
+    static void calculateRows(byte[] cells, int rows, int cols, int mineBit, int rowFrom, int rowTo) {
+        int bandRows = rowTo - rowFrom;
+        int stride = ((cols + 7) & ~7) + 8;
+        byte[] mines = new byte[(bandRows + 2) * stride];
+        byte[] rowSums = new byte[(bandRows + 2) * stride];
+        
+        for (int i = Math.max(rowFrom - 1, 0); i < Math.min(rowTo + 1, rows); i++) {
+            int src = i * cols;
+            int dst = (i - rowFrom + 1) * stride + 1;
+            for (int j = 0; j < cols; j++) {
+                mines[dst + j] = (byte) ((cells[src + j] & mineBit) != 0 ? 1 : 0);
+            }
+        }
+        
+        // Left + centre + right of each row, halo rows included
+        for (int i = 0; i <= bandRows + 1; i++) {
+            int base = i * stride + 1;
+            for (int j = 0; j < cols; j += 8) {
+                int p = base + j;
+                long sum = (long) LONGS.get(mines, p - 1)
+                        + (long) LONGS.get(mines, p)
+                        + (long) LONGS.get(mines, p + 1);
+                LONGS.set(rowSums, p, sum);
+            }
+        }
+        
+        // Row above + current + below. A mine's own square is included in its
+        // total, which is harmless because mine squares keep a zero count.
+        for (int i = 0; i < bandRows; i++) {
+            int base = (i + 1) * stride + 1;
+            int out = (rowFrom + i) * cols;
+            int j = 0;
+            for (; j + 8 <= cols; j += 8) {
+                int p = base + j;
+                long counts = (long) LONGS.get(rowSums, p - stride)
+                        + (long) LONGS.get(rowSums, p)
+                        + (long) LONGS.get(rowSums, p + stride);
+                long mineLanes = (long) LONGS.get(mines, p) * LANE_MASK;
+                long existing = (long) LONGS.get(cells, out + j);
+                LONGS.set(cells, out + j, existing | (counts & ~mineLanes));
+            }
+            for (; j < cols; j++) {
+                int p = base + j;
+                if (mines[p] == 0) {
+                    cells[out + j] |= (byte) (rowSums[p - stride] + rowSums[p] + rowSums[p + stride]);
+                }
+            }
+        }
+    }
+}
+
+// Solver
+// Deduces which hidden squares are certainly safe or certainly mines from the
+// numbers the player can see. It never reads hidden mines. The solver reads
+// the board's change log, so only squares near the last moves are re-examined.
+class MineSolver {
+    private static final byte UNKNOWN = 0;
+    private static final byte SAFE = 1;
+    private static final byte MINE = 2;
+    
+    private final Board board;
+    private final Board.ChangeCursor changes;
+    private final int rows;
+    private final int cols;
+    private final boolean trustFlags;
+    private final byte[] deduced;
+    private final boolean[] wasRevealed;
+    private final boolean[] queued;
+    private int[] queue = new int[64];
+    private int queueSize;
+    private final int[] unknownA = new int[8];
+    private final int[] unknownB = new int[8];
+    private int safeCount;
+    private int mineCount;
+    
+    // With trustFlags the player's flags are treated as known mines; otherwise
+    // they are ignored and every deduction follows from the numbers alone.
+    public MineSolver(Board board, boolean trustFlags) {
+        this.board = board;
+        this.rows = board.getRows();
+        this.cols = board.getCols();
+        this.trustFlags = trustFlags;
+        this.deduced = new byte[rows * cols];
+        this.wasRevealed = new boolean[rows * cols];
+        this.queued = new boolean[rows * cols];
+        this.changes = board.openChangeCursor();
+        rescan();
+    }
+    
+    // Re-examines only the squares the moves since the last update touched
+    public void update() {
+        if (changes.hasOverflowed()) {
+            changes.clear();
+            rescan();
+            return;
+        }
+        for (int k = 0; k < changes.size(); k++) {
+            if (invalidates(changes.get(k))) {
+                changes.clear();
+                rescan();
+                return;
+            }
+        }
+        for (int k = 0; k < changes.size(); k++) {
+            int index = changes.get(k);
+            wasRevealed[index] = (board.getVisibleState(index) & Board.REVEALED) != 0;
+            forgetIfGiven(index);
+            enqueue(index);
+            enqueueNeighbors(index);
+        }
+        changes.clear();
+        propagate();
+    }
+    
+    // Reveals and new flags only add information, so earlier deductions stay
+    // valid. A removed flag (when flags are trusted) or an undone reveal can
+    // take away the reason for one.
+    private boolean invalidates(int index) {
+        int state = board.getVisibleState(index);
+        if ((state & (Board.REVEALED | Board.FLAGGED)) != 0) return false;
+        return trustFlags || wasRevealed[index];
+    }
+    
+    // Forgets every deduction and works them all out again from the board
+    private void rescan() {
+        Arrays.fill(deduced, UNKNOWN);
+        safeCount = 0;
+        mineCount = 0;
+        for (int index = 0; index < deduced.length; index++) {
+            wasRevealed[index] = (board.getVisibleState(index) & Board.REVEALED) != 0;
+            enqueue(index);
+        }
+        propagate();
+    }
+    
+    // Deductions are only reported for squares that are still hidden and,
+    // with trustFlags, not flagged; those are given, as they are in a rescan
+    private void forgetIfGiven(int index) {
+        if (deduced[index] == UNKNOWN) return;
+        int state = board.getVisibleState(index);
+        if ((state & Board.REVEALED) == 0 && !(trustFlags && (state & Board.FLAGGED) != 0)) return;
+        if (deduced[index] == SAFE) {
+            safeCount--;
+        } else {
+            mineCount--;
+        }
+        deduced[index] = UNKNOWN;
+    }
+    
+    public boolean isCertainMine(int index) {
+        return deduced[index] == MINE;
+    }
+    
+    // Indices (row * cols + col) of hidden squares that are certainly safe
+    public int[] getSafeCells() {
+        return collect(SAFE);
+    }
+    
+    // Indices (row * cols + col) of hidden squares that are certainly mines
+    public int[] getMineCells() {
+        return collect(MINE);
+    }
+    
+    private int[] collect(byte kind) {
+        int[] result = new int[kind == SAFE ? safeCount : mineCount];
+        int n = 0;
+        for (int index = 0; index < deduced.length && n < result.length; index++) {
+            if (deduced[index] == kind) {
+                result[n++] = index;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+    
+    private void propagate() {
+        while (queueSize > 0) {
+            int index = queue[--queueSize];
+            queued[index] = false;
+            if (isConstraint(index)) {
+                applyRules(index);
+            }
+        }
+    }
+    
+    private boolean isConstraint(int index) {
+        int state = board.getVisibleState(index);
+        return (state & Board.REVEALED) != 0 && (state & Board.MINE) == 0;
+    }
+    
+    private void applyRules(int a) {
+        int sizeA = collectUnknown(a, unknownA);
+        if (sizeA == 0) return;
+        int remainingA = remainingMines(a);
+        
+        if (remainingA == 0) {
+            markAll(unknownA, sizeA, SAFE);
+            return;
+        }
+        if (remainingA == sizeA) {
+            markAll(unknownA, sizeA, MINE);
+            return;
+        }
+        
+        // Pairwise rule against every constraint that can share a square with a
+        int row = a / cols;
+        int col = a - row * cols;
+        for (int i = Math.max(row - 2, 0); i <= Math.min(row + 2, rows - 1); i++) {
+            for (int j = Math.max(col - 2, 0); j <= Math.min(col + 2, cols - 1); j++) {
+                int b = i * cols + j;
+                if (b == a || !isConstraint(b)) continue;
+                
+                int sizeB = collectUnknown(b, unknownB);
+                if (sizeB == 0) continue;
+                int remainingB = remainingMines(b);
+                int common = countCommon(sizeA, sizeB);
+                if (common == 0) continue;
+                
+                // If a's extra mines must fill every square only a can see, the
+                // squares only b can see are all safe, and vice versa. A pair
+                // that marks nothing new must not stop the search, or the
+                // result would depend on the order squares were queued in.
+                int known = safeCount + mineCount;
+                if (remainingA - remainingB == sizeA - common) {
+                    markExclusive(unknownA, sizeA, unknownB, sizeB, MINE);
+                    markExclusive(unknownB, sizeB, unknownA, sizeA, SAFE);
+                }
+                if (remainingB - remainingA == sizeB - common) {
+                    markExclusive(unknownB, sizeB, unknownA, sizeA, MINE);
+                    markExclusive(unknownA, sizeA, unknownB, sizeB, SAFE);
+                }
+                if (safeCount + mineCount != known) return;
+            }
+        }
+    }
+    
+    private int collectUnknown(int index, int[] out) {
+        int row = index / cols;
+        int col = index - row * cols;
+        int size = 0;
+        for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++) {
+            for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, cols - 1); j++) {
+                int neighbor = i * cols + j;
+                if (neighbor != index && isUnknown(neighbor)) {
+                    out[size++] = neighbor;
+                }
+            }
+        }
+        return size;
+    }
+    
+    private int remainingMines(int index) {
+        int row = index / cols;
+        int col = index - row * cols;
+        int known = 0;
+        for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++) {
+            for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, cols - 1); j++) {
+                int neighbor = i * cols + j;
+                if (neighbor != index && isKnownMine(neighbor)) {
+                    known++;
+                }
+            }
+        }
+        return (board.getVisibleState(index) & Board.COUNT_MASK) - known;
+    }
+    
+    private boolean isUnknown(int index) {
+        int state = board.getVisibleState(index);
+        if ((state & Board.REVEALED) != 0 || deduced[index] != UNKNOWN) {
+            return false;
+        }
+        return !trustFlags || (state & Board.FLAGGED) == 0;
+    }
+    
+    private boolean isKnownMine(int index) {
+        int state = board.getVisibleState(index);
+        if ((state & Board.REVEALED) != 0) {
+            return (state & Board.MINE) != 0;
+        }
+        return deduced[index] == MINE || (trustFlags && (state & Board.FLAGGED) != 0);
+    }
+    
+    private int countCommon(int sizeA, int sizeB) {
+        int common = 0;
+        for (int x = 0; x < sizeA; x++) {
+            for (int y = 0; y < sizeB; y++) {
+                if (unknownA[x] == unknownB[y]) {
+                    common++;
+                    break;
+                }
+            }
+        }
+        return common;
+    }
+    
+    private void markExclusive(int[] from, int sizeFrom, int[] other, int sizeOther, byte kind) {
+        for (int x = 0; x < sizeFrom; x++) {
+            boolean shared = false;
+            for (int y = 0; y < sizeOther; y++) {
+                if (from[x] == other[y]) {
+                    shared = true;
+                    break;
+                }
+            }
+            if (!shared) {
+                mark(from[x], kind);
+            }
+        }
+    }
+    
+    private void markAll(int[] squares, int size, byte kind) {
+        for (int x = 0; x < size; x++) {
+            mark(squares[x], kind);
+        }
+    }
+    
+    private void mark(int index, byte kind) {
+        if (deduced[index] != UNKNOWN) return;
+        deduced[index] = kind;
+        if (kind == SAFE) {
+            safeCount++;
+        } else {
+            mineCount++;
+        }
+        enqueueNeighbors(index);
+    }
+    
+    private void enqueueNeighbors(int index) {
+        int row = index / cols;
+        int col = index - row * cols;
+        for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++) {
+            for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, cols - 1); j++) {
+                enqueue(i * cols + j);
+            }
+        }
+    }
+    
+    private void enqueue(int index) {
+        if (queued[index]) return;
+        if (queueSize == queue.length) {
+            queue = Arrays.copyOf(queue, queue.length * 2);
+        }
+        queued[index] = true;
+        queue[queueSize++] = index;
+    }
+}
+
+// Probability engine
+// Computes the exact mine probability of every hidden square from the numbers
+// the player can see. Hidden squares next to a number are split into
+// independent components, each counted by dynamic programming over the
+// component's open constraints. The components are
+// then combined with the binomial count of the unconstrained interior squares.
+class MineProbabilityEngine {
+    private final ForkJoinPool pool;
+    
+    public MineProbabilityEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+    
+    public MineProbabilityEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
+    // Returns one entry per square (row * cols + col). Revealed squares are
+    // 0 or 1; flags are not trusted and count as hidden.
+    public double[] compute(Board board) {
+        int rows = board.getRows();
+        int cols = board.getCols();
+        int size = rows * cols;
+        double[] probabilities = new double[size];
+        
+        int remainingMines = board.getTotalMines();
+        int[] componentOf = new int[size];
+        Arrays.fill(componentOf, -1);
+        List<int[]> components = new ArrayList<>();
+        int interior = 0;
+        
+        for (int index = 0; index < size; index++) {
+            int state = board.getVisibleState(index);
+            if ((state & Board.REVEALED) != 0) {
+                if ((state & Board.MINE) != 0) {
+                    probabilities[index] = 1.0;
+                    remainingMines--;
+                }
+            } else if (componentOf[index] < 0) {
+                if (touchesNumber(board, index)) {
+                    components.add(collectComponent(board, index, components.size(), componentOf));
+                } else {
+                    interior++;
+                }
+            }
+        }
+        
+        List<ForkJoinTask<ComponentCounts>> tasks = new ArrayList<>();
+        for (int[] component : components) {
+            tasks.add(pool.submit(() -> enumerate(board, component)));
+        }
+        ComponentCounts[] counts = new ComponentCounts[tasks.size()];
+        for (int k = 0; k < counts.length; k++) {
+            counts[k] = tasks.get(k).join();
+        }
+        
+        combine(counts, components, componentOf, interior, remainingMines, board, probabilities);
+        return probabilities;
+    }
+    
+    // Mine-count distribution of one component. ways[m] is the (scaled) number
+    // of consistent layouts with m mines and cellWays[c][m] how many of those
+    // put a mine on the component's c-th square.
+    private static class ComponentCounts {
+        double[] ways;
+        double[][] cellWays;
+    }
+    
+    private static boolean touchesNumber(Board board, int index) {
+        int rows = board.getRows();
+        int cols = board.getCols();
+        int row = index / cols;
+        int col = index - row * cols;
+        for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++) {
+            for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, cols - 1); j++) {
+                if (isNumber(board, i * cols + j)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isNumber(Board board, int index) {
+        int state = board.getVisibleState(index);
+        return (state & Board.REVEALED) != 0 && (state & Board.MINE) == 0;
+    }
+    
+    private static boolean isHidden(Board board, int index) {
+        return (board.getVisibleState(index) & Board.REVEALED) == 0;
+    }
+    
+    // Breadth-first walk over hidden squares that share a number. The visiting
+    // order keeps neighbouring squares close together, which lets the
+    // backtracking close constraints early.
+    private static int[] collectComponent(Board board, int start, int label, int[] componentOf) {
+        int rows = board.getRows();
+        int cols = board.getCols();
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        componentOf[start] = label;
+        
+        while (head < tail) {
+            int index = queue[head++];
+            int row = index / cols;
+            int col = index - row * cols;
+            for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++) {
+                for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, cols - 1); j++) {
+                    int number = i * cols + j;
+                    if (!isNumber(board, number)) continue;
+                    
+                    for (int a = Math.max(i - 1, 0); a <= Math.min(i + 1, rows - 1); a++) {
+                        for (int b = Math.max(j - 1, 0); b <= Math.min(j + 1, cols - 1); b++) {
+                            int other = a * cols + b;
+                            if (componentOf[other] >= 0 || !isHidden(board, other)) continue;
+                            
+                            componentOf[other] = label;
+                            if (tail == queue.length) {
+                                queue = Arrays.copyOf(queue, queue.length * 2);
+                            }
+                            queue[tail++] = other;
+                        }
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+    
+    private static ComponentCounts enumerate(Board board, int[] component) {
+        int rows = board.getRows();
+        int cols = board.getCols();
+        int n = component.length;
+        Map<Integer, Integer> localIndex = new HashMap<>();
+        for (int c = 0; c < n; c++) {
+            localIndex.put(component[c], c);
+        }
+        
+        // Every number touching the component becomes one constraint
+        Map<Integer, Integer> constraintIds = new HashMap<>();
+        List<int[]> constraintCells = new ArrayList<>();
+        List<Integer> needs = new ArrayList<>();
+        List<List<Integer>> cellConstraints = new ArrayList<>();
+        for (int c = 0; c < n; c++) {
+            cellConstraints.add(new ArrayList<>());
+        }
+        for (int c = 0; c < n; c++) {
+            int row = component[c] / cols;
+            int col = component[c] - row * cols;
+            for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++) {
+                for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, cols - 1); j++) {
+                    int number = i * cols + j;
+                    if (!isNumber(board, number) || constraintIds.containsKey(number)) continue;
+                    
+                    int id = constraintCells.size();
+                    constraintIds.put(number, id);
+                    int[] cells = new int[8];
+                    int count = 0;
+                    for (int a = Math.max(i - 1, 0); a <= Math.min(i + 1, rows - 1); a++) {
+                        for (int b = Math.max(j - 1, 0); b <= Math.min(j + 1, cols - 1); b++) {
+                            Integer local = localIndex.get(a * cols + b);
+                            if (local != null) {
+                                cells[count++] = local;
+                                cellConstraints.get(local).add(id);
+                            }
+                        }
+                    }
+                    constraintCells.add(Arrays.copyOf(cells, count));
+                    needs.add(board.getVisibleState(number) & Board.COUNT_MASK);
+                }
+            }
+        }
+        
+        int[] need = new int[constraintCells.size()];
+        int[][] cellsOf = new int[need.length][];
+        for (int k = 0; k < need.length; k++) {
+            need[k] = needs.get(k);
+            cellsOf[k] = constraintCells.get(k);
+        }
+        int[][] constraintsOf = new int[n][];
+        for (int c = 0; c < n; c++) {
+            List<Integer> ids = cellConstraints.get(c);
+            constraintsOf[c] = new int[ids.size()];
+            for (int k = 0; k < ids.size(); k++) {
+                constraintsOf[c][k] = ids.get(k);
+            }
+        }
+        
+        ComponentCounts result = FrontierDp.count(n, need, cellsOf, constraintsOf);
+        if (result == null) {
+            Backtracker search = new Backtracker(n, need.length);
+            System.arraycopy(need, 0, search.need, 0, need.length);
+            for (int k = 0; k < need.length; k++) {
+                search.unassigned[k] = cellsOf[k].length;
+            }
+            System.arraycopy(constraintsOf, 0, search.constraintsOf, 0, n);
+            search.run(0, 0);
+            result = new ComponentCounts();
+            result.ways = new double[n + 1];
+            result.cellWays = new double[n][n + 1];
+            for (int m = 0; m <= n; m++) {
+                result.ways[m] = search.ways[m];
+                for (int c = 0; c < n; c++) {
+                    result.cellWays[c][m] = search.cellWays[c][m];
+                }
+            }
+        }
+        
+        // Scaling a component by a constant leaves every probability unchanged
+        // and keeps products of many components inside double range
+        double max = 1;
+        for (double w : result.ways) {
+            max = Math.max(max, w);
+        }
+        for (int m = 0; m <= n; m++) {
+            result.ways[m] /= max;
+            for (int c = 0; c < n; c++) {
+                result.cellWays[c][m] /= max;
+            }
+        }
+        return result;
+    }
+    
+    // Counts a component's layouts by dynamic programming over its squares in
+    // visiting order. At the cut after the first c squares, the only thing the
+    // rest of the component needs to know is how many mines have been put next
+    // to each number that has squares on both sides of the cut (the "open"
+    // constraints). Partial layouts with the same counts are therefore merged,
+    // keyed by those counts packed 4 bits per open constraint. The squares are
+    // visited in a greedy order that keeps few constraints open at each cut,
+    // since the number of keys grows quickly with that. A backward pass
+    // builds the same tables for the squares after each cut. Joining the
+    // forward layouts where square c is a mine with the backward layouts at
+    // the next cut gives that square's counts. The work grows with the number
+    // of distinct keys per cut instead of 2^n.
+    private static final class FrontierDp {
+        private static final int MAX_OPEN = 16;
+        
+        private final int n;
+        private final int[] need;
+        private final int[][] constraintsOf;
+        // order[t]: the square visited t-th; cuts count visited squares
+        private final int[] order;
+        // open[c]: constraints with a square before cut c and one at or after it
+        private final int[][] open;
+        private final int[][] positions;
+        
+        private FrontierDp(int n, int[] need, int[][] cellsOf, int[][] constraintsOf) {
+            this.n = n;
+            this.need = need;
+            this.constraintsOf = constraintsOf;
+            this.order = visitingOrder(n, cellsOf, constraintsOf);
+            int[] rank = new int[n];
+            for (int t = 0; t < n; t++) {
+                rank[order[t]] = t;
+            }
+            int[] first = new int[need.length];
+            int[] last = new int[need.length];
+            for (int k = 0; k < need.length; k++) {
+                first[k] = n;
+                last[k] = -1;
+                for (int c : cellsOf[k]) {
+                    first[k] = Math.min(first[k], rank[c]);
+                    last[k] = Math.max(last[k], rank[c]);
+                }
+            }
+            open = new int[n + 1][];
+            positions = new int[n + 1][];
+            int[] ids = new int[need.length];
+            for (int c = 0; c <= n; c++) {
+                int size = 0;
+                for (int k = 0; k < need.length; k++) {
+                    if (first[k] < c && c <= last[k]) {
+                        ids[size++] = k;
+                    }
+                }
+                open[c] = Arrays.copyOf(ids, size);
+                positions[c] = new int[need.length];
+                Arrays.fill(positions[c], -1);
+                for (int p = 0; p < size; p++) {
+                    positions[c][open[c][p]] = p;
+                }
+            }
+        }
+        
+        // Repeatedly visits the square that leaves the fewest constraints open,
+        // preferring squares whose constraints are already open so the walk
+        // stays local
+        private static int[] visitingOrder(int n, int[][] cellsOf, int[][] constraintsOf) {
+            int[] remaining = new int[cellsOf.length];
+            for (int k = 0; k < cellsOf.length; k++) {
+                remaining[k] = cellsOf[k].length;
+            }
+            boolean[] visited = new boolean[n];
+            int[] order = new int[n];
+            for (int t = 0; t < n; t++) {
+                int best = -1;
+                int bestGrowth = Integer.MAX_VALUE;
+                int bestShared = -1;
+                for (int c = 0; c < n; c++) {
+                    if (visited[c]) continue;
+                    int growth = 0;
+                    int shared = 0;
+                    for (int k : constraintsOf[c]) {
+                        boolean opened = remaining[k] < cellsOf[k].length;
+                        if (opened) shared++;
+                        if (remaining[k] == 1) {
+                            growth -= opened ? 1 : 0;
+                        } else if (!opened) {
+                            growth++;
+                        }
+                    }
+                    if (growth < bestGrowth || (growth == bestGrowth && shared > bestShared)) {
+                        best = c;
+                        bestGrowth = growth;
+                        bestShared = shared;
+                    }
+                }
+                visited[best] = true;
+                order[t] = best;
+                for (int k : constraintsOf[best]) {
+                    remaining[k]--;
+                }
+            }
+            return order;
+        }
+        
+        // Returns null when some cut has more open constraints than fit a key
+        static ComponentCounts count(int n, int[] need, int[][] cellsOf, int[][] constraintsOf) {
+            FrontierDp dp = new FrontierDp(n, need, cellsOf, constraintsOf);
+            for (int[] ids : dp.open) {
+                if (ids.length > MAX_OPEN) {
+                    return null;
+                }
+            }
+            return dp.run();
+        }
+        
+        private ComponentCounts run() {
+            List<Map<Long, double[]>> backward = new ArrayList<>();
+            for (int c = 0; c <= n; c++) {
+                backward.add(null);
+            }
+            backward.set(n, start());
+            for (int c = n - 1; c >= 0; c--) {
+                backward.set(c, step(backward.get(c + 1), order[c], c + 1, c, false));
+            }
+            
+            ComponentCounts result = new ComponentCounts();
+            result.cellWays = new double[n][];
+            Map<Long, double[]> forward = start();
+            for (int c = 0; c < n; c++) {
+                Map<Long, double[]> mines = step(forward, order[c], c, c + 1, true);
+                result.cellWays[order[c]] = join(mines, backward.get(c + 1), c + 1);
+                forward = step(forward, order[c], c, c + 1, false);
+                // A partial layout with no completion in the backward table can
+                // never count towards anything, so it is dropped here rather than
+                // carried (and multiplied) through the remaining squares
+                Map<Long, double[]> after = backward.get(c + 1);
+                int cut = c + 1;
+                forward.keySet().removeIf(key -> !after.containsKey(complement(key, cut)));
+            }
+            result.ways = forward.getOrDefault(0L, new double[n + 1]);
+            return result;
+        }
+        
+        private Map<Long, double[]> start() {
+            Map<Long, double[]> table = new HashMap<>();
+            double[] ways = new double[n + 1];
+            ways[0] = 1;
+            table.put(0L, ways);
+            return table;
+        }
+        
+        // Assigns square cell to every entry of table, whose keys are laid out
+        // for cut from, and returns the table for cut to. Constraints that are
+        // open at from but not at to are closed here and must be met exactly.
+        // With minesOnly, only the layouts that put a mine on the square are kept.
+        private Map<Long, double[]> step(Map<Long, double[]> table, int cell, int from, int to, boolean minesOnly) {
+            Map<Long, double[]> next = new HashMap<>();
+            int[] fromPositions = positions[from];
+            int[] toPositions = positions[to];
+            for (Map.Entry<Long, double[]> entry : table.entrySet()) {
+                long key = entry.getKey();
+                for (int value = minesOnly ? 1 : 0; value <= 1; value++) {
+                    long nextKey = 0;
+                    boolean feasible = true;
+                    for (int p = 0; p < open[to].length && feasible; p++) {
+                        int k = open[to][p];
+                        int count = digit(key, fromPositions[k]) + (touches(cell, k) ? value : 0);
+                        feasible = count <= need[k];
+                        nextKey |= (long) count << (4 * p);
+                    }
+                    for (int k : constraintsOf[cell]) {
+                        if (!feasible) break;
+                        if (toPositions[k] < 0) {
+                            feasible = digit(key, fromPositions[k]) + value == need[k];
+                        }
+                    }
+                    if (!feasible) continue;
+                    
+                    double[] ways = next.computeIfAbsent(nextKey, unused -> new double[n + 1]);
+                    double[] source = entry.getValue();
+                    for (int m = 0; m + value <= n; m++) {
+                        ways[m + value] += source[m];
+                    }
+                }
+            }
+            return next;
+        }
+        
+        // Layouts of the squares before cut that match a layout of the squares
+        // after it, by mine total: each open constraint's two counts add up to
+        // its number
+        private double[] join(Map<Long, double[]> before, Map<Long, double[]> after, int cut) {
+            double[] ways = new double[n + 1];
+            for (Map.Entry<Long, double[]> entry : before.entrySet()) {
+                double[] other = after.get(complement(entry.getKey(), cut));
+                if (other == null) continue;
+                
+                // Only the mine totals a table entry can reach are non-zero,
+                // usually a narrow band, so the product is taken over those
+                double[] left = entry.getValue();
+                int leftLow = lowest(left);
+                int leftHigh = highest(left);
+                int otherLow = lowest(other);
+                int otherHigh = highest(other);
+                for (int a = leftLow; a <= leftHigh; a++) {
+                    if (left[a] == 0) continue;
+                    for (int b = otherLow; b <= otherHigh && a + b <= n; b++) {
+                        ways[a + b] += left[a] * other[b];
+                    }
+                }
+            }
+            return ways;
+        }
+        
+        // Key of the counts the squares after cut must add to meet every open
+        // constraint, or -1 if some constraint already has too many mines
+        private long complement(long key, int cut) {
+            long complement = 0;
+            for (int p = 0; p < open[cut].length; p++) {
+                int rest = need[open[cut][p]] - digit(key, p);
+                if (rest < 0) {
+                    return -1;
+                }
+                complement |= (long) rest << (4 * p);
+            }
+            return complement;
+        }
+        
+        private static int lowest(double[] ways) {
+            int m = 0;
+            while (m < ways.length - 1 && ways[m] == 0) {
+                m++;
+            }
+            return m;
+        }
+        
+        private static int highest(double[] ways) {
+            int m = ways.length - 1;
+            while (m > 0 && ways[m] == 0) {
+                m--;
+            }
+            return m;
+        }
+        
+        private boolean touches(int cell, int constraint) {
+            for (int k : constraintsOf[cell]) {
+                if (k == constraint) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private static int digit(long key, int position) {
+            return position < 0 ? 0 : (int) (key >>> (4 * position)) & 0xF;
+        }
+    }
+    
+    private static class Backtracker {
+        final int[][] constraintsOf;
+        final int[] need;
+        final int[] assigned;
+        final int[] unassigned;
+        final boolean[] mine;
+        final long[] ways;
+        final long[][] cellWays;
+        
+        Backtracker(int cells, int constraints) {
+            constraintsOf = new int[cells][];
+            need = new int[constraints];
+            assigned = new int[constraints];
+            unassigned = new int[constraints];
+            mine = new boolean[cells];
+            ways = new long[cells + 1];
+            cellWays = new long[cells][cells + 1];
+        }
+        
+        void run(int cell, int mines) {
+            if (cell == mine.length) {
+                ways[mines]++;
+                for (int c = 0; c < mine.length; c++) {
+                    if (mine[c]) {
+                        cellWays[c][mines]++;
+                    }
+                }
+                return;
+            }
+            
+            for (int value = 0; value <= 1; value++) {
+                boolean feasible = true;
+                for (int k : constraintsOf[cell]) {
+                    assigned[k] += value;
+                    unassigned[k]--;
+                    if (assigned[k] > need[k] || assigned[k] + unassigned[k] < need[k]) {
+                        feasible = false;
+                    }
+                }
+                if (feasible) {
+                    mine[cell] = value == 1;
+                    run(cell + 1, mines + value);
+                    mine[cell] = false;
+                }
+                for (int k : constraintsOf[cell]) {
+                    assigned[k] -= value;
+                    unassigned[k]++;
+                }
+            }
+        }
+    }
+    
+    private static void combine(ComponentCounts[] counts, List<int[]> components, int[] componentOf,
+                                int interior, int remainingMines, Board board, double[] probabilities) {
+        int k = counts.length;
+        
+        // prefix[i] convolves components before i, suffix[i] those from i on
+        double[][] prefix = new double[k + 1][];
+        double[][] suffix = new double[k + 1][];
+        prefix[0] = new double[] {1.0};
+        suffix[k] = new double[] {1.0};
+        for (int i = 0; i < k; i++) {
+            prefix[i + 1] = convolve(prefix[i], counts[i].ways);
+        }
+        for (int i = k - 1; i >= 0; i--) {
+            suffix[i] = convolve(counts[i].ways, suffix[i + 1]);
+        }
+        double[] total = prefix[k];
+        double[] weight = interiorWeights(interior, remainingMines, total.length - 1);
+        
+        double norm = 0;
+        double interiorMines = 0;
+        for (int s = 0; s < total.length; s++) {
+            double w = total[s] * weight[s];
+            norm += w;
+            interiorMines += w * (remainingMines - s);
+        }
+        if (norm == 0) {
+            return;
+        }
+        
+        for (int i = 0; i < k; i++) {
+            double[] others = convolve(prefix[i], suffix[i + 1]);
+            // Weight of the rest of the board given this component holds m mines
+            double[] rest = new double[counts[i].ways.length];
+            for (int m = 0; m < rest.length; m++) {
+                for (int t = 0; t < others.length && m + t < weight.length; t++) {
+                    rest[m] += others[t] * weight[m + t];
+                }
+            }
+            int[] component = components.get(i);
+            for (int c = 0; c < component.length; c++) {
+                double p = 0;
+                for (int m = 0; m < rest.length; m++) {
+                    p += counts[i].cellWays[c][m] * rest[m];
+                }
+                probabilities[component[c]] = p / norm;
+            }
+        }
+        
+        if (interior > 0) {
+            double p = interiorMines / norm / interior;
+            for (int index = 0; index < probabilities.length; index++) {
+                if (componentOf[index] < 0 && isHidden(board, index)) {
+                    probabilities[index] = p;
+                }
+            }
+        }
+    }
+    
+    // weight[s] is proportional to C(interior, remainingMines - s), the number
+    // of ways to place the rest of the mines when the frontier holds s. Values
+    // are scaled against the largest one to stay inside double range.
+    private static double[] interiorWeights(int interior, int remainingMines, int maxFrontier) {
+        double[] logC = new double[interior + 1];
+        for (int r = 0; r < interior; r++) {
+            logC[r + 1] = logC[r] + Math.log(interior - r) - Math.log(r + 1);
+        }
+        double max = Double.NEGATIVE_INFINITY;
+        for (int s = 0; s <= maxFrontier; s++) {
+            int r = remainingMines - s;
+            if (r >= 0 && r <= interior) {
+                max = Math.max(max, logC[r]);
+            }
+        }
+        double[] weight = new double[maxFrontier + 1];
+        for (int s = 0; s <= maxFrontier; s++) {
+            int r = remainingMines - s;
+            if (r >= 0 && r <= interior) {
+                weight[s] = Math.exp(logC[r] - max);
+            }
+        }
+        return weight;
+    }
+    
+    private static double[] convolve(double[] a, double[] b) {
+        double[] result = new double[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == 0) continue;
+            for (int j = 0; j < b.length; j++) {
+                result[i + j] += a[i] * b[j];
+            }
+        }
+        return result;
+    }
+}
+
+// Simulation
+// A strategy plays one game at a time for a single simulator worker, so
+// implementations may keep per-game state without any synchronisation.
+interface PlayStrategy {
+    void startGame(Board board, RandomGenerator random);
+    
+    // Index (row * cols + col) of the next square to reveal
+    int nextMove();
+    
+    // Whether the move last returned by nextMove was a guess
+    boolean wasGuess();
+}
+
+// Reveals certain-safe squares found by MineSolver and otherwise guesses a
+// uniformly random hidden square that is not a known mine
+class SolverStrategy implements PlayStrategy {
+    private Board board;
+    private RandomGenerator random;
+    private MineSolver solver;
+    private int[] safeCells = new int[0];
+    private int nextSafe;
+    private boolean guess;
+    
+    @Override
+    public void startGame(Board board, RandomGenerator random) {
+        this.board = board;
+        this.random = random;
+        this.solver = new MineSolver(board, false);
+        this.safeCells = new int[0];
+        this.nextSafe = 0;
+    }
+    
+    @Override
+    public int nextMove() {
+        solver.update();
+        while (nextSafe < safeCells.length) {
+            int index = safeCells[nextSafe++];
+            if ((board.getVisibleState(index) & Board.REVEALED) == 0) {
+                guess = false;
+                return index;
+            }
+        }
+        safeCells = solver.getSafeCells();
+        nextSafe = 0;
+        if (safeCells.length > 0) {
+            guess = false;
+            return safeCells[nextSafe++];
+        }
+        
+        guess = true;
+        int size = board.getRows() * board.getCols();
+        while (true) {
+            int index = random.nextInt(size);
+            if ((board.getVisibleState(index) & Board.REVEALED) == 0 && !solver.isCertainMine(index)) {
+                return index;
+            }
+        }
+    }
+    
+    @Override
+    public boolean wasGuess() {
+        return guess;
+    }
+}
+
+// Plays many headless games in parallel. Every worker owns its strategy and a
+// SplittableRandom split from the root seed, so workers share no mutable state
+// and a run is reproducible for a given seed and thread count.
+class WinRateSimulator {
+    private final int rows;
+    private final int cols;
+    private final int mines;
+    private final Supplier<PlayStrategy> strategies;
+    
+    public WinRateSimulator(int rows, int cols, int mines, Supplier<PlayStrategy> strategies) {
+        this.rows = rows;
+        this.cols = cols;
+        this.mines = mines;
+        this.strategies = strategies;
+    }
+    
+    public SimulationResult run(long games, int threads, long seed) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            SplittableRandom root = new SplittableRandom(seed);
+            List<Future<SimulationResult>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long share = games / threads + (t < games % threads ? 1 : 0);
+                SplittableRandom random = root.split();
+                futures.add(executor.submit(() -> runWorker(share, random)));
+            }
+            
+            SimulationResult total = new SimulationResult();
+            for (Future<SimulationResult> future : futures) {
+                try {
+                    total.merge(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Simulation worker failed", e.getCause());
+                }
+            }
+            return total;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private SimulationResult runWorker(long games, SplittableRandom random) {
+        PlayStrategy strategy = strategies.get();
+        SimulationResult result = new SimulationResult();
+        for (long g = 0; g < games; g++) {
+            // Built like the game builds its boards, so the first click is always safe
+            Board board = new BoardBuilder()
+                    .setRows(rows)
+                    .setCols(cols)
+                    .setMines(mines)
+                    .setLazyGeneration(true)
+                    .setSeed(random.nextLong())
+                    .build();
+            strategy.startGame(board, random);
+            int clicks = 0;
+            int guesses = 0;
+            while (!board.hasHitMine() && !board.isAllSafeCellsRevealed()) {
+                int index = strategy.nextMove();
+                if (strategy.wasGuess()) {
+                    guesses++;
+                }
+                board.revealCell(index / cols, index % cols);
+                clicks++;
+            }
+            result.record(!board.hasHitMine(), clicks, guesses);
+        }
+        return result;
+    }
+}
+
+// Aggregated outcome of a simulation with 95% confidence intervals
+class SimulationResult {
+    private static final double Z_95 = 1.959963984540054;
+    
+    private long games;
+    private long wins;
+    private double clickSum;
+    private double clickSquares;
+    private double guessSum;
+    private double guessSquares;
+    
+    void record(boolean won, int clicks, int guesses) {
+        games++;
+        if (won) {
+            wins++;
+        }
+        clickSum += clicks;
+        clickSquares += (double) clicks * clicks;
+        guessSum += guesses;
+        guessSquares += (double) guesses * guesses;
+    }
+    
+    void merge(SimulationResult other) {
+        games += other.games;
+        wins += other.wins;
+        clickSum += other.clickSum;
+        clickSquares += other.clickSquares;
+        guessSum += other.guessSum;
+        guessSquares += other.guessSquares;
+    }
+    
+    public long getGames() {
+        return games;
+    }
+    
+    public double getWinRate() {
+        return games == 0 ? 0 : (double) wins / games;
+    }
+    
+    // Wilson score interval, which stays inside [0, 1] for extreme win rates
+    public double[] getWinRateInterval() {
+        if (games == 0) {
+            return new double[] {0, 1};
+        }
+        double p = getWinRate();
+        double z2 = Z_95 * Z_95;
+        double centre = (p + z2 / (2 * games)) / (1 + z2 / games);
+        double half = Z_95 * Math.sqrt(p * (1 - p) / games + z2 / (4.0 * games * games)) / (1 + z2 / games);
+        return new double[] {centre - half, centre + half};
+    }
+    
+    public double getMeanClicks() {
+        return games == 0 ? 0 : clickSum / games;
+    }
+    
+    public double getClicksHalfWidth() {
+        return halfWidth(clickSum, clickSquares);
+    }
+    
+    public double getMeanGuesses() {
+        return games == 0 ? 0 : guessSum / games;
+    }
+    
+    public double getGuessesHalfWidth() {
+        return halfWidth(guessSum, guessSquares);
+    }
+    
+    private double halfWidth(double sum, double squares) {
+        if (games < 2) {
+            return Double.NaN;
+        }
+        double mean = sum / games;
+        double variance = Math.max(0, (squares - games * mean * mean) / (games - 1));
+        return Z_95 * Math.sqrt(variance / games);
+    }
+    
+    @Override
+    public String toString() {
+        double[] interval = getWinRateInterval();
+        return String.format("games=%d winRate=%.4f [%.4f, %.4f] clicks=%.2f +/- %.2f guesses=%.3f +/- %.3f",
+                games, getWinRate(), interval[0], interval[1],
+                getMeanClicks(), getClicksHalfWidth(), getMeanGuesses(), getGuessesHalfWidth());
+    }
+}
+
+// Benchmarks
+// Self-contained harness for the Board hot paths. Each scenario runs warm-up
+// rounds, then measured rounds of fixed wall time. Operations are timed in
+// batches of at least a millisecond, so reading the clock and the allocation
+// counter costs next to nothing per operation; setUp(n) prepares the next n
+// operations outside the clock. Allocation and GC activity are read from the
+// platform MXBeans. Results can be compared against a baseline file written
+// by an earlier run.
+class BoardBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 5;
+    private static final long ROUND_NANOS = 200_000_000L;
+    private static final long MIN_BATCH_NANOS = 1_000_000L;
+    private static final int MAX_BATCH = 1 << 20;
+    private static final String RESULT_FORMAT = "%-36s %16.1f ns/op %14.1f B/op %8d gcs %8d gc-ms%s%n";
+    
+    interface Scenario {
+        default void setUp(int batch) {}
+        
+        Object run();
+    }
+    
+    private final PrintStream out;
+    private final Map<String, Double> baseline;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private Object sink;
+    
+    public BoardBenchmark(PrintStream out, Map<String, Double> baseline) {
+        this.out = out;
+        this.baseline = baseline;
+    }
+    
+    // Reads the ns/op column of a file previously produced by runAll
+    public static Map<String, Double> readBaseline(Path file) throws IOException {
+        Map<String, Double> result = new HashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length >= 3 && parts[2].equals("ns/op")) {
+                result.put(parts[0], Double.parseDouble(parts[1]));
+            }
+        }
+        return result;
+    }
+    
+    public void runAll(int[] customSizes) {
+        GameDifficulty[] presets = {GameDifficulty.BEGINNER, GameDifficulty.INTERMEDIATE, GameDifficulty.EXPERT};
+        for (GameDifficulty preset : presets) {
+            CellFactory factory = DifficultyFactory.getFactory(preset);
+            int rows = factory.getRows();
+            int cols = factory.getCols();
+            int mines = factory.getMines();
+            String name = preset.name().toLowerCase();
+            SplittableRandom random = new SplittableRandom(1);
+            
+            measure("construct." + name, () -> new Board(rows, cols, mines, random));
+            measure("game.scripted." + name, new ScriptedGame(rows, cols, mines));
+        }
+        
+        Board expert = midGameBoard(16, 30, 99);
+        BoardRenderer renderer = new BoardRenderer(expert);
+        measure("display.expert", expert::display);
+        measure("render.expert", renderer::render);
+        measure("winCheck.expert", expert::isAllSafeCellsRevealed);
+        measure("clear.floodFill.expert", new ClearBoard(16, 30, 99, false, false));
+        measure("clear.regionIndex.expert", new ClearBoard(16, 30, 99, true, false));
+        
+        for (int size : customSizes) {
+            int cells = size * size;
+            String suffix = "." + size + "x" + size;
+            SplittableRandom random = new SplittableRandom(2);
+            
+            measure("construct" + suffix, () -> new Board(size, size, cells * 15 / 100, random));
+            
+            Board low = new Board(size, size, cells / 10, random);
+            measure("placeMines.low" + suffix, () -> {
+                low.resetAndPlaceMines(random);
+                return low;
+            });
+            Board high = new Board(size, size, cells * 9 / 10, random);
+            measure("placeMines.high" + suffix, () -> {
+                high.resetAndPlaceMines(random);
+                return high;
+            });
+            
+            Board adjacency = new Board(size, size, cells / 5, random);
+            measure("adjacency" + suffix, () -> {
+                adjacency.resetAndCalculateAdjacentMines();
+                return adjacency;
+            });
+            
+            measure("cascade" + suffix, new Scenario() {
+                private Board[] boards;
+                private int next;
+                
+                @Override
+                public void setUp(int batch) {
+                    boards = new Board[batch];
+                    for (int k = 0; k < batch; k++) {
+                        boards[k] = new Board(size, size, Math.max(1, cells / 200), new SplittableRandom(3));
+                    }
+                    next = 0;
+                }
+                
+                @Override
+                public Object run() {
+                    Board board = boards[next];
+                    boards[next++] = null;
+                    board.revealCell(size / 2, size / 2);
+                    return board;
+                }
+            });
+            
+            measure("firstCascade.floodFill" + suffix, new ClearBoard(size, size, cells / 10, false, true));
+            measure("firstCascade.regionIndex" + suffix, new ClearBoard(size, size, cells / 10, true, true));
+            measure("clear.floodFill" + suffix, new ClearBoard(size, size, cells / 10, false, false));
+            measure("clear.regionIndex" + suffix, new ClearBoard(size, size, cells / 10, true, false));
+            
+            Board large = midGameBoard(size, size, cells / 10);
+            measure("display" + suffix, large::display);
+        }
+    }
+    
+    private static Board midGameBoard(int rows, int cols, int mines) {
+        Board board = new Board(rows, cols, mines, new SplittableRandom(4));
+        SplittableRandom random = new SplittableRandom(5);
+        for (int k = 0; k < 20; k++) {
+            int row = random.nextInt(rows);
+            int col = random.nextInt(cols);
+            if (board.getCell(row, col).isMine()) {
+                board.toggleFlag(row, col);
+            } else {
+                board.revealCell(row, col);
+            }
+        }
+        return board;
+    }
+    
+    // Clicks every safe square of a fresh seeded board in row-major order, or
+    // only its first zero square, with or without the zero-region index
+    private static class ClearBoard implements Scenario {
+        private final int rows;
+        private final int cols;
+        private final int mines;
+        private final boolean indexed;
+        private final boolean firstCascadeOnly;
+        private Board[] boards;
+        private int next;
+        private long seed;
+        
+        ClearBoard(int rows, int cols, int mines, boolean indexed, boolean firstCascadeOnly) {
+            this.rows = rows;
+            this.cols = cols;
+            this.mines = mines;
+            this.indexed = indexed;
+            this.firstCascadeOnly = firstCascadeOnly;
+        }
+        
+        @Override
+        public void setUp(int batch) {
+            boards = new Board[batch];
+            for (int k = 0; k < batch; k++) {
+                boards[k] = new Board(rows, cols, mines, new SplittableRandom(seed++));
+                boards[k].setZeroRegionIndex(indexed);
+                boards[k].getCellState(0);
+            }
+            next = 0;
+        }
+        
+        @Override
+        public Object run() {
+            Board board = boards[next];
+            boards[next++] = null;
+            for (int index = 0; index < rows * cols; index++) {
+                int state = board.getCellState(index);
+                if ((state & (Board.MINE | Board.REVEALED)) != 0) continue;
+                if (firstCascadeOnly && (state & Board.COUNT_MASK) != 0) continue;
+                board.revealCell(index / cols, index % cols);
+                if (firstCascadeOnly) break;
+            }
+            return board;
+        }
+    }
+    
+    // Plays a complete seeded game with SolverStrategy; the seed advances each
+    // operation so the JIT cannot specialise on a single layout
+    private static class ScriptedGame implements Scenario {
+        private final int rows;
+        private final int cols;
+        private final int mines;
+        private long seed;
+        
+        ScriptedGame(int rows, int cols, int mines) {
+            this.rows = rows;
+            this.cols = cols;
+            this.mines = mines;
+        }
+        
+        @Override
+        public Object run() {
+            SplittableRandom random = new SplittableRandom(seed++);
+            Board board = new BoardBuilder()
+                    .setRows(rows)
+                    .setCols(cols)
+                    .setMines(mines)
+                    .setLazyGeneration(true)
+                    .setSeed(random.nextLong())
+                    .build();
+            PlayStrategy strategy = new SolverStrategy();
+            strategy.startGame(board, random);
+            while (!board.hasHitMine() && !board.isAllSafeCellsRevealed()) {
+                int index = strategy.nextMove();
+                board.revealCell(index / cols, index % cols);
+            }
+            return board;
+        }
+    }
+    
+    private void measure(String name, Scenario scenario) {
+        int batch = calibrate(scenario);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            runRound(scenario, batch, null);
+        }
+        
+        long[] totals = new long[3];
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            runRound(scenario, batch, totals);
+        }
+        long gcs = gcCount() - gcCountBefore;
+        long gcMillis = gcTime() - gcTimeBefore;
+        
+        double nanosPerOp = (double) totals[0] / totals[2];
+        double bytesPerOp = (double) totals[1] / totals[2];
+        String delta = "";
+        Double previous = baseline.get(name);
+        if (previous != null) {
+            delta = String.format("  %+7.1f%% vs baseline", (nanosPerOp - previous) / previous * 100);
+        }
+        out.printf(RESULT_FORMAT, name, nanosPerOp, bytesPerOp, gcs, gcMillis, delta);
+    }
+    
+    // Smallest power-of-two batch that takes at least MIN_BATCH_NANOS
+    private int calibrate(Scenario scenario) {
+        int batch = 1;
+        while (batch < MAX_BATCH) {
+            scenario.setUp(batch);
+            long start = System.nanoTime();
+            for (int k = 0; k < batch; k++) {
+                sink = scenario.run();
+            }
+            if (System.nanoTime() - start >= MIN_BATCH_NANOS) {
+                break;
+            }
+            batch *= 2;
+        }
+        return batch;
+    }
+    
+    // totals accumulates timed nanos, allocated bytes and operation count
+    private void runRound(Scenario scenario, int batch, long[] totals) {
+        long thread = Thread.currentThread().getId();
+        long roundStart = System.nanoTime();
+        do {
+            scenario.setUp(batch);
+            long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            for (int k = 0; k < batch; k++) {
+                sink = scenario.run();
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+            if (totals != null) {
+                totals[0] += elapsed;
+                totals[1] += allocated;
+                totals[2] += batch;
+            }
+        } while (System.nanoTime() - roundStart < ROUND_NANOS);
+    }
+    
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+    
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+}
+
+// Self-test
+// Cross-checks the fast paths against slow references on random boards:
+// the scatter and word-parallel adjacency counters against
+// Board.countAdjacentMines, the probability engine against brute-force
+// enumeration of every layout, the incremental solver against a fresh one
+// after every move, and MappedBoard's moves against Board's on the same
+// mines. Run with --selftest; a failed check throws IllegalStateException
+// naming the board.
+class SelfTest {
+    // Layout counts above this are too slow to enumerate
+    private static final double MAX_ENUMERATED_LAYOUTS = 2e6;
+    
+    private final PrintStream out;
+    
+    public SelfTest(PrintStream out) {
+        this.out = out;
+    }
+    
+    public void runAll() {
+        report("adjacency", checkAdjacency(new SplittableRandom(1)));
+        report("probability", checkProbabilities(new SplittableRandom(2), 300));
+        report("solver", checkSolver(new SplittableRandom(3), 200));
+        report("mapped", checkMappedBoard(new SplittableRandom(4), 100));
+    }
+    
+    private void report(String name, int boards) {
+        out.printf("%-24s ok, %d boards%n", name, boards);
+    }
+    
+    // Widths around multiples of 64 cover the word counter's lane and row edges
+    private static int checkAdjacency(SplittableRandom random) {
+        int[] widths = {1, 2, 3, 7, 8, 9, 63, 64, 65, 127, 128, 129, 191, 192, 193};
+        int[] heights = {1, 2, 3, 17, 64};
+        int boards = 0;
+        for (int rows : heights) {
+            for (int cols : widths) {
+                int size = rows * cols;
+                if (size < 2) continue;
+                Board board = new Board(rows, cols, 1 + random.nextInt(size - 1), random);
+                expectCounts(board, countsOf(board), "scatter " + rows + "x" + cols);
+                
+                byte[] cells = new byte[size];
+                for (int i = 0; i < size; i++) {
+                    cells[i] = (byte) (board.getCellState(i) & Board.MINE);
+                }
+                WordAdjacencyCounter.calculate(cells, rows, cols, Board.MINE);
+                expectCounts(board, cells, "word " + rows + "x" + cols);
+                boards++;
+            }
+        }
+        
+        // Boards past the word counter threshold, serial and in row bands
+        Board serial = new Board(600, 129, 600 * 129 / 5, random);
+        expectCounts(serial, countsOf(serial), "word 600x129");
+        Board banded = new Board(600, 193, 600 * 193 / 5, random, ForkJoinPool.commonPool());
+        expectCounts(banded, countsOf(banded), "banded 600x193");
+        return boards + 2;
+    }
+    
+    private static byte[] countsOf(Board board) {
+        byte[] cells = new byte[board.getRows() * board.getCols()];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = (byte) board.getCellState(i);
+        }
+        return cells;
+    }
+    
+    private static void expectCounts(Board board, byte[] cells, String name) {
+        int cols = board.getCols();
+        for (int i = 0; i < cells.length; i++) {
+            if ((cells[i] & Board.MINE) != 0) continue;
+            if ((cells[i] & Board.COUNT_MASK) != board.countAdjacentMines(i / cols, i % cols)) {
+                throw new IllegalStateException("Adjacency mismatch on " + name + " at square " + i);
+            }
+        }
+    }
+    
+    // Small boards with a few safe clicks; every layout of the remaining
+    // mines over the hidden squares is checked against the visible numbers
+    private static int checkProbabilities(SplittableRandom random, int boards) {
+        MineProbabilityEngine engine = new MineProbabilityEngine();
+        int checked = 0;
+        while (checked < boards) {
+            int rows = 3 + random.nextInt(5);
+            int cols = 3 + random.nextInt(5);
+            int size = rows * cols;
+            Board board = new Board(rows, cols, 1 + random.nextInt(size / 4), random);
+            for (int k = 1 + random.nextInt(3); k > 0; k--) {
+                int index = random.nextInt(size);
+                if ((board.getCellState(index) & Board.MINE) == 0) {
+                    board.revealCell(index / cols, index % cols);
+                }
+            }
+            double[] expected = enumerateProbabilities(board);
+            if (expected == null) continue;
+            
+            double[] actual = engine.compute(board);
+            for (int i = 0; i < size; i++) {
+                if ((board.getCellState(i) & Board.REVEALED) == 0 && Math.abs(actual[i] - expected[i]) > 1e-9) {
+                    throw new IllegalStateException("Probability mismatch on " + rows + "x" + cols
+                            + " at square " + i + ": " + actual[i] + " vs " + expected[i]);
+                }
+            }
+            checked++;
+        }
+        return checked;
+    }
+    
+    // Returns null when the board is cleared or has too many layouts
+    private static double[] enumerateProbabilities(Board board) {
+        int rows = board.getRows();
+        int cols = board.getCols();
+        int size = rows * cols;
+        int[] hidden = new int[size];
+        int hiddenCount = 0;
+        int[] numbers = new int[size];
+        long[] neighbours = new long[size];
+        int numberCount = 0;
+        int[] position = new int[size];
+        for (int i = 0; i < size; i++) {
+            if ((board.getCellState(i) & Board.REVEALED) == 0) {
+                position[i] = hiddenCount;
+                hidden[hiddenCount++] = i;
+            }
+        }
+        int mines = board.getTotalMines();
+        if (hiddenCount == mines || binomial(hiddenCount, mines) > MAX_ENUMERATED_LAYOUTS) {
+            return null;
+        }
+        for (int i = 0; i < size; i++) {
+            int state = board.getCellState(i);
+            if ((state & Board.REVEALED) == 0) continue;
+            long mask = 0;
+            for (int r = Math.max(i / cols - 1, 0); r <= Math.min(i / cols + 1, rows - 1); r++) {
+                for (int c = Math.max(i % cols - 1, 0); c <= Math.min(i % cols + 1, cols - 1); c++) {
+                    int neighbour = r * cols + c;
+                    if ((board.getCellState(neighbour) & Board.REVEALED) == 0) {
+                        mask |= 1L << position[neighbour];
+                    }
+                }
+            }
+            numbers[numberCount] = state & Board.COUNT_MASK;
+            neighbours[numberCount++] = mask;
+        }
+        
+        // Every subset of hidden squares with exactly `mines` bits, in
+        // increasing order (Gosper's hack)
+        double[] mineCounts = new double[hiddenCount];
+        double layouts = 0;
+        long limit = 1L << hiddenCount;
+        for (long layout = (1L << mines) - 1; layout < limit; ) {
+            boolean consistent = true;
+            for (int k = 0; k < numberCount && consistent; k++) {
+                consistent = Long.bitCount(layout & neighbours[k]) == numbers[k];
+            }
+            if (consistent) {
+                layouts++;
+                for (long bits = layout; bits != 0; bits &= bits - 1) {
+                    mineCounts[Long.numberOfTrailingZeros(bits)]++;
+                }
+            }
+            long lowest = layout & -layout;
+            long ripple = layout + lowest;
+            layout = ripple | (((layout ^ ripple) >>> 2) / lowest);
+        }
+        
+        double[] probabilities = new double[size];
+        for (int k = 0; k < hiddenCount; k++) {
+            probabilities[hidden[k]] = mineCounts[k] / layouts;
+        }
+        return probabilities;
+    }
+    
+    // Whole games of reveals, flags on real mines, unflags, undos and redos,
+    // with a renderer reading the change log too. After every move the
+    // solver's incremental deductions must equal those of a new solver.
+    private static int checkSolver(SplittableRandom random, int games) {
+        OutputStream sink = OutputStream.nullOutputStream();
+        for (int game = 0; game < games; game++) {
+            Board board = new BoardBuilder()
+                    .setDifficulty(GameDifficulty.INTERMEDIATE)
+                    .setLazyGeneration(true)
+                    .setSeed(game)
+                    .build();
+            board.setUndoEnabled(true);
+            boolean trustFlags = game % 2 == 0;
+            MineSolver solver = new MineSolver(board, trustFlags);
+            AnsiBoardRenderer renderer = new AnsiBoardRenderer(board);
+            int size = board.getRows() * board.getCols();
+            
+            for (int move = 0; move < 400 && !board.hasHitMine() && !board.isAllSafeCellsRevealed(); move++) {
+                int index;
+                do {
+                    index = random.nextInt(size);
+                } while ((board.getVisibleState(index) & Board.REVEALED) != 0);
+                int row = index / board.getCols();
+                int col = index % board.getCols();
+                
+                int action = random.nextInt(10);
+                if (action == 0) {
+                    board.undo();
+                } else if (action == 1) {
+                    board.redo();
+                } else if (action < 4) {
+                    boolean flagged = (board.getVisibleState(index) & Board.FLAGGED) != 0;
+                    if (flagged || (board.getCellState(index) & Board.MINE) != 0) {
+                        board.toggleFlag(row, col);
+                    }
+                } else {
+                    int[] safe = solver.getSafeCells();
+                    if (safe.length > 0) {
+                        index = safe[random.nextInt(safe.length)];
+                        row = index / board.getCols();
+                        col = index % board.getCols();
+                    }
+                    board.revealCell(row, col);
+                }
+                
+                solver.update();
+                try {
+                    renderer.writeFrame(sink);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                MineSolver fresh = new MineSolver(board, trustFlags);
+                if (!Arrays.equals(solver.getSafeCells(), fresh.getSafeCells())
+                        || !Arrays.equals(solver.getMineCells(), fresh.getMineCells())) {
+                    throw new IllegalStateException("Solver mismatch in game " + game + " after move " + move);
+                }
+            }
+        }
+        return games;
+    }
+    
+    // A MappedBoard made from a seed and a Board restored from its mines get
+    // the same clicks and flags; every move must change the same squares
+    private static int checkMappedBoard(SplittableRandom random, int boards) {
+        Path file;
+        try {
+            file = Files.createTempFile("selftest", ".msmb");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            for (int b = 0; b < boards; b++) {
+                int rows = 5 + random.nextInt(120);
+                int cols = 5 + random.nextInt(120);
+                int mines = rows * cols * (8 + random.nextInt(13)) / 100;
+                try (MappedBoard mapped = MappedBoard.create(file, rows, cols, mines, random.nextLong())) {
+                    byte[] cells = new byte[rows * cols];
+                    for (int i = 0; i < cells.length; i++) {
+                        cells[i] = (byte) (mapped.getCellState(i / cols, i % cols) & Board.MINE);
+                    }
+                    Board board = Board.restore(rows, cols, mines, cells, 0, 0, false);
+                    
+                    for (int move = 0; move < 40 && !board.hasHitMine() && !board.isAllSafeCellsRevealed(); move++) {
+                        int row = random.nextInt(rows);
+                        int col = random.nextInt(cols);
+                        MoveResult expected;
+                        MoveResult actual;
+                        if (random.nextInt(4) == 0) {
+                            expected = board.toggleFlag(row, col);
+                            actual = mapped.toggleFlag(row, col);
+                        } else if ((cells[row * cols + col] & Board.MINE) == 0 || random.nextInt(20) == 0) {
+                            expected = board.revealCell(row, col);
+                            actual = mapped.revealCell(row, col);
+                        } else {
+                            continue;
+                        }
+                        expectSameMove(board, mapped, expected, actual, "board " + b + " move " + move);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Left in the temp directory
+            }
+        }
+        return boards;
+    }
+    
+    private static void expectSameMove(Board board, MappedBoard mapped, MoveResult expected, MoveResult actual,
+                                       String name) {
+        if (expected.getRevealedCells() != actual.getRevealedCells() || expected.isMineHit() != actual.isMineHit()
+                || expected.isWon() != actual.isWon() || expected.getFlagsDelta() != actual.getFlagsDelta()
+                || board.getRevealedCells() != mapped.getRevealedCells()
+                || board.getFlaggedCells() != mapped.getFlaggedCells()) {
+            throw new IllegalStateException("MappedBoard move differs on " + name);
+        }
+        int cols = board.getCols();
+        for (int i = 0; i < board.getRows() * cols; i++) {
+            int state = board.getCellState(i);
+            int other = mapped.getCellState(i / cols, i % cols);
+            if ((state & (Board.REVEALED | Board.FLAGGED)) != (other & (Board.REVEALED | Board.FLAGGED))
+                    || ((state & Board.REVEALED) != 0 && state != other)) {
+                throw new IllegalStateException("MappedBoard square " + i + " differs on " + name);
+            }
+        }
+    }
+    
+    private static double binomial(int n, int k) {
+        double result = 1;
+        for (int i = 0; i < k; i++) {
+            result = result * (n - i) / (i + 1);
+        }
+        return result;
+    }
+}
+
+// Snapshots
+// Versioned binary save format. Layout, big-endian:
+//   magic "MSWP", version byte, game state byte, hit-mine byte,
+//   rows, cols, mines, revealed, flagged (ints),
+//   mine, revealed and flagged bitmaps (one bit per square, row-major),
+//   CRC32 of everything before it.
+// Adjacency counts are not stored; the restored board recomputes them on
+// first use. An EXPERT board takes 211 bytes.
+class BoardSnapshot {
+    private static final int MAGIC = 0x4D535750;
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 1 + 5 * 4;
+    
+    private final Board board;
+    private final GameState gameState;
+    
+    private BoardSnapshot(Board board, GameState gameState) {
+        this.board = board;
+        this.gameState = gameState;
+    }
+    
+    public Board getBoard() {
+        return board;
+    }
+    
+    public GameState getGameState() {
+        return gameState;
+    }
+    
+    public static int encodedSize(Board board) {
+        int bitmapSize = (board.getRows() * board.getCols() + 7) / 8;
+        return HEADER_SIZE + 3 * bitmapSize + 4;
+    }
+    
+    public static void write(Board board, GameState gameState, ByteBuffer out) {
+        if (!board.isGenerated()) {
+            throw new IllegalStateException("Mines are not placed until the first reveal");
+        }
+        int start = out.position();
+        out.putInt(MAGIC);
+        out.put(VERSION);
+        out.put((byte) gameState.ordinal());
+        out.put((byte) (board.hasHitMine() ? 1 : 0));
+        out.putInt(board.getRows());
+        out.putInt(board.getCols());
+        out.putInt(board.getTotalMines());
+        out.putInt(board.getRevealedCells());
+        out.putInt(board.getFlaggedCells());
+        writeBitmap(board, Board.MINE, out);
+        writeBitmap(board, Board.REVEALED, out);
+        writeBitmap(board, Board.FLAGGED, out);
+        
+        CRC32 crc = new CRC32();
+        crc.update(out.duplicate().flip().position(start));
+        out.putInt((int) crc.getValue());
+    }
+    
+    private static void writeBitmap(Board board, int bit, ByteBuffer out) {
+        int size = board.getRows() * board.getCols();
+        for (int base = 0; base < size; base += 8) {
+            int packed = 0;
+            for (int k = 0; k < 8 && base + k < size; k++) {
+                if ((board.getCellState(base + k) & bit) != 0) {
+                    packed |= 1 << k;
+                }
+            }
+            out.put((byte) packed);
+        }
+    }
+    
+    // Reads a snapshot straight from the buffer without
+    // an intermediate copy. Throws IllegalArgumentException on corrupt input.
+    public static BoardSnapshot read(ByteBuffer in) {
+        int start = in.position();
+        if (in.remaining() < HEADER_SIZE + 4 || in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a Minesweeper snapshot");
+        }
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version: " + version);
+        }
+        int state = in.get();
+        boolean hitMine = in.get() != 0;
+        int rows = in.getInt();
+        int cols = in.getInt();
+        int mines = in.getInt();
+        int revealed = in.getInt();
+        int flagged = in.getInt();
+        if (rows <= 0 || cols <= 0 || (long) rows * cols > Integer.MAX_VALUE
+                || state < 0 || state >= GameState.values().length) {
+            throw new IllegalArgumentException("Corrupt snapshot header");
+        }
+        int size = rows * cols;
+        int bitmapSize = (size + 7) / 8;
+        if (in.remaining() < 3 * bitmapSize + 4) {
+            throw new IllegalArgumentException("Truncated snapshot");
+        }
+        
+        CRC32 crc = new CRC32();
+        ByteBuffer covered = in.duplicate();
+        covered.position(start).limit(in.position() + 3 * bitmapSize);
+        crc.update(covered);
+        int expected = in.getInt(in.position() + 3 * bitmapSize);
+        if ((int) crc.getValue() != expected) {
+            throw new IllegalArgumentException("Snapshot checksum mismatch");
+        }
+        
+        byte[] cells = new byte[size];
+        readBitmap(in, Board.MINE, cells);
+        readBitmap(in, Board.REVEALED, cells);
+        readBitmap(in, Board.FLAGGED, cells);
+        in.getInt();
+        
+        Board board = Board.restore(rows, cols, mines, cells, revealed, flagged, hitMine);
+        return new BoardSnapshot(board, GameState.values()[state]);
+    }
+    
+    private static void readBitmap(ByteBuffer in, int bit, byte[] cells) {
+        for (int base = 0; base < cells.length; base += 8) {
+            int packed = in.get();
+            for (int k = 0; k < 8 && base + k < cells.length; k++) {
+                if ((packed & (1 << k)) != 0) {
+                    cells[base + k] |= bit;
+                }
+            }
+        }
+    }
+    
+    public static void save(Board board, GameState gameState, Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(board));
+        write(board, gameState, buffer);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+    
+    // A snapshot is a few hundred bytes, so one plain read beats mapping the
+    // file, and no mapping is left open to block a later save to the same path
+    public static BoardSnapshot load(Path file) throws IOException {
+        return read(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+}
+
+// Move journal
+// Append-only log of moves on a seeded board. The header records everything
+// needed to regenerate the layout, and every move is a fixed 8-byte record:
+//   int cell index, int (action << 28 | milliseconds since previous move)
+// so a game can be replayed to any move without storing board snapshots.
+// Undo and redo are journaled as moves with a cell index of -1.
+class MoveJournal implements Closeable {
+    static final int REVEAL = 0;
+    static final int FLAG = 1;
+    static final int UNDO = 2;
+    static final int REDO = 3;
+    static final int CHORD = 4;
+    
+    private static final int MAGIC = 0x4D534A4C;
+    private static final byte VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 1 + 3 * 4 + 8;
+    private static final int RECORD_SIZE = 8;
+    private static final int LAZY = 1;
+    private static final int SAFE_NEIGHBORHOOD = 2;
+    private static final int NO_GUESS = 4;
+    private static final int PARALLEL = 8;
+    private static final int MAX_DELTA = (1 << 28) - 1;
+    
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private long lastMoveNanos;
+    private long moveCount;
+    
+    public MoveJournal(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+    
+    // Called by BoardBuilder once the seeded board has been generated
+    void start(int rows, int cols, int mines, long seed, RandomStrategy strategy,
+               boolean lazyGeneration, boolean safeNeighborhood, boolean noGuess, boolean parallel) {
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.put((byte) strategy.ordinal());
+        buffer.put((byte) ((lazyGeneration ? LAZY : 0) | (safeNeighborhood ? SAFE_NEIGHBORHOOD : 0)
+                | (noGuess ? NO_GUESS : 0) | (parallel ? PARALLEL : 0)));
+        buffer.putInt(rows);
+        buffer.putInt(cols);
+        buffer.putInt(mines);
+        buffer.putLong(seed);
+        lastMoveNanos = System.nanoTime();
+    }
+    
+    void record(int index, int action) {
+        long now = System.nanoTime();
+        long delta = Math.min((now - lastMoveNanos) / 1_000_000, MAX_DELTA);
+        lastMoveNanos = now;
+        if (buffer.remaining() < RECORD_SIZE) {
+            flushQuietly();
+        }
+        buffer.putInt(index);
+        buffer.putInt(action << 28 | (int) delta);
+        moveCount++;
+    }
+    
+    public long getMoveCount() {
+        return moveCount;
+    }
+    
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    // Moves are recorded from Board methods that cannot throw IOException;
+    // a failed write is kept as the buffer contents and retried on the next flush
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            buffer.compact();
+            throw new UncheckedIOException("Could not write move journal", e);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+    
+    public static long countMoves(Path file) throws IOException {
+        return (Files.size(file) - HEADER_SIZE) / RECORD_SIZE;
+    }
+    
+    // Regenerates the journaled board and applies its first moves. Records
+    // are fixed width, so any prefix of the game is reachable directly.
+    public static Board replay(Path file, long moves) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a move journal");
+            }
+            byte version = in.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported journal version: " + version);
+            }
+            int strategyByte = in.get();
+            if (strategyByte < 0 || strategyByte >= RandomStrategy.values().length) {
+                throw new IllegalArgumentException("Unknown random strategy in journal: " + strategyByte);
+            }
+            RandomStrategy strategy = RandomStrategy.values()[strategyByte];
+            int generation = in.get();
+            int rows = in.getInt();
+            int cols = in.getInt();
+            int mines = in.getInt();
+            long seed = in.getLong();
+            
+            Board board = new BoardBuilder()
+                    .setRows(rows)
+                    .setCols(cols)
+                    .setMines(mines)
+                    .setSeed(seed)
+                    .setRandomStrategy(strategy)
+                    .setLazyGeneration((generation & LAZY) != 0)
+                    .setSafeNeighborhood((generation & SAFE_NEIGHBORHOOD) != 0)
+                    .setNoGuess((generation & NO_GUESS) != 0)
+                    .setParallelGeneration((generation & PARALLEL) != 0)
+                    .build();
+            board.setUndoEnabled(true);
+            long available = in.remaining() / RECORD_SIZE;
+            for (long k = 0; k < Math.min(moves, available); k++) {
+                int index = in.getInt();
+                int action = in.getInt() >>> 28;
+                apply(board, index, action);
+            }
+            return board;
+        }
+    }
+    
+    static void apply(Board board, int index, int action) {
+        int row = index / board.getCols();
+        int col = index % board.getCols();
+        switch (action) {
+            case UNDO:
+                board.undo();
+                break;
+            case REDO:
+                board.redo();
+                break;
+            case REVEAL:
+                board.revealCell(row, col);
+                break;
+            case FLAG:
+                board.toggleFlag(row, col);
+                break;
+            case CHORD:
+                board.chordCell(row, col);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown journal action: " + action);
+        }
+    }
+}
+
+// Undo history
+// Stores each move as the list of squares it changed, all in one shared
+// index array, so memory grows with the squares moves touch rather than
+// with the board size times the number of moves.
+class MoveHistory {
+    static final byte REVEAL = 0;
+    static final byte FLAG = 1;
+    
+    private int[] changed = new int[64];
+    private int changedSize;
+    private int[] moveStart = new int[16];
+    private byte[] moveKind = new byte[16];
+    private boolean[] hitMineBefore = new boolean[16];
+    private int moveCount;
+    private int cursor;
+    
+    // Starts a new move, discarding any moves that were undone
+    void beginMove(byte kind, boolean hitMine) {
+        if (cursor < moveCount) {
+            moveCount = cursor;
+            changedSize = moveStart[cursor];
+        }
+        if (moveCount + 1 >= moveStart.length) {
+            int capacity = moveStart.length * 2;
+            moveStart = Arrays.copyOf(moveStart, capacity);
+            moveKind = Arrays.copyOf(moveKind, capacity);
+            hitMineBefore = Arrays.copyOf(hitMineBefore, capacity);
+        }
+        moveStart[moveCount] = changedSize;
+        moveKind[moveCount] = kind;
+        hitMineBefore[moveCount] = hitMine;
+        moveCount++;
+        cursor = moveCount;
+        moveStart[moveCount] = changedSize;
+    }
+    
+    void add(int index) {
+        if (changedSize == changed.length) {
+            changed = Arrays.copyOf(changed, changed.length * 2);
+        }
+        changed[changedSize++] = index;
+        moveStart[moveCount] = changedSize;
+    }
+    
+    boolean canUndo() {
+        return cursor > 0;
+    }
+    
+    boolean canRedo() {
+        return cursor < moveCount;
+    }
+    
+    // Index of the move the next undo() reverts, or the next redo() reapplies
+    int undoMove() {
+        return --cursor;
+    }
+    
+    int redoMove() {
+        return cursor++;
+    }
+    
+    int start(int move) {
+        return moveStart[move];
+    }
+    
+    int end(int move) {
+        return moveStart[move + 1];
+    }
+    
+    int changedAt(int k) {
+        return changed[k];
+    }
+    
+    byte kind(int move) {
+        return moveKind[move];
+    }
+    
+    boolean hitMineBefore(int move) {
+        return hitMineBefore[move];
+    }
+}
+
+// No-guess generation
+// Produces layouts that MineSolver can clear from the first click by pure
+// deduction. Candidates are drawn from a seed in a fixed order and checked
+// in parallel batches. The lowest-numbered candidate that passes wins, so
+// the result does not depend on thread timing or the core count. Once a
+// candidate passes, every higher-numbered one still running is cancelled.
+class NoGuessGenerator {
+    // Bounds the time a click can spend here; BoardBuilder caps the density
+    // well below where this many candidates could all fail
+    private static final int MAX_CANDIDATES = 10_000;
+    
+    private final ForkJoinPool pool;
+    
+    public NoGuessGenerator() {
+        this(ForkJoinPool.commonPool());
+    }
+    
+    public NoGuessGenerator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
+    // Returns a board whose mines avoid the first click and its neighbours
+    // and which the solver clears from that click without guessing
+    public Board generate(int rows, int cols, int mines, int firstClick, long seed) {
+        SplittableRandom root = new SplittableRandom(seed);
+        int batchSize = Math.max(4, pool.getParallelism() * 4);
+        
+        for (int first = 0; first < MAX_CANDIDATES; first += batchSize) {
+            AtomicInteger winner = new AtomicInteger(Integer.MAX_VALUE);
+            List<ForkJoinTask<Board>> tasks = new ArrayList<>();
+            for (int k = 0; k < batchSize && first + k < MAX_CANDIDATES; k++) {
+                int candidate = first + k;
+                SplittableRandom random = root.split();
+                tasks.add(pool.submit(() -> tryCandidate(rows, cols, mines, firstClick, random, candidate, winner)));
+            }
+            
+            Board best = null;
+            for (ForkJoinTask<Board> task : tasks) {
+                Board board = task.join();
+                if (best == null && board != null) {
+                    best = board;
+                }
+            }
+            if (best != null) {
+                return best;
+            }
+        }
+        throw new IllegalStateException("Could not generate a no-guess board with " + mines + " mines");
+    }
+    
+    private static Board tryCandidate(int rows, int cols, int mines, int firstClick,
+                                      SplittableRandom random, int candidate, AtomicInteger winner) {
+        if (winner.get() < candidate) {
+            return null;
+        }
+        Board board = Board.deferred(rows, cols, mines, random, true, false);
+        board.revealCell(firstClick / cols, firstClick % cols);
+        MineSolver solver = new MineSolver(board, false);
+        
+        while (!board.isAllSafeCellsRevealed()) {
+            if (winner.get() < candidate) {
+                return null;
+            }
+            int[] safe = solver.getSafeCells();
+            if (safe.length == 0) {
+                return null;
+            }
+            for (int index : safe) {
+                board.revealCell(index / cols, index % cols);
+            }
+            solver.update();
+        }
+        
+        winner.accumulateAndGet(candidate, Math::min);
+        return winner.get() == candidate ? board : null;
+    }
+}
+
+// Endless board
+// An unbounded plane cut into 64x64 chunks. A chunk's mines depend only on
+// hash(seed, chunkX, chunkY), so any chunk can be rebuilt at any time and
+// the counts on a chunk's border come from regenerating its neighbours'
+// mines. Chunks are created when a move or a render touches them, and at
+// most maxLoadedChunks are kept in memory. The least recently used chunk is
+// evicted first, and only chunks the player has changed are written out.
+// They go to spillDirectory, or to an in-memory map if that is null, so
+// memory grows with the explored area rather than with the plane.
+class EndlessBoard {
+    static final int CHUNK_BITS = 6;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int CHUNK_AREA = CHUNK_SIZE * CHUNK_SIZE;
+    // Below one mine in eight squares, zero regions start to percolate and
+    // a single cascade could run forever
+    private static final int MIN_MINES_PER_CHUNK = CHUNK_AREA / 8;
+    
+    private final long seed;
+    private final int minesPerChunk;
+    private final int maxLoadedChunks;
+    private final Path spillDirectory;
+    private final Map<Long, byte[]> spilled = new HashMap<>();
+    private final LinkedHashMap<Long, Chunk> loaded;
+    private long[] worklist = new long[64];
+    private long revealedCells;
+    private long flaggedCells;
+    private boolean hitMine;
+    
+    private static final class Chunk {
+        final byte[] cells;
+        boolean dirty;
+        
+        Chunk(byte[] cells) {
+            this.cells = cells;
+        }
+    }
+    
+    public EndlessBoard(long seed, int minesPerChunk, int maxLoadedChunks, Path spillDirectory) {
+        if (minesPerChunk < MIN_MINES_PER_CHUNK || minesPerChunk >= CHUNK_AREA - 9) {
+            throw new IllegalArgumentException("Mines per chunk must be between "
+                    + MIN_MINES_PER_CHUNK + " and " + (CHUNK_AREA - 10));
+        }
+        if (maxLoadedChunks < 1) {
+            throw new IllegalArgumentException("At least one chunk must stay loaded");
+        }
+        this.seed = seed;
+        this.minesPerChunk = minesPerChunk;
+        this.maxLoadedChunks = maxLoadedChunks;
+        this.spillDirectory = spillDirectory;
+        this.loaded = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Chunk> eldest) {
+                if (size() <= EndlessBoard.this.maxLoadedChunks) {
+                    return false;
+                }
+                if (eldest.getValue().dirty) {
+                    spill(eldest.getKey(), eldest.getValue().cells);
+                }
+                return true;
+            }
+        };
+    }
+    
+    // The nine squares around (0, 0) never hold mines, so a game can always
+    // start there
+    public MoveResult revealCell(int row, int col) {
+        long revealedBefore = revealedCells;
+        boolean hitBefore = hitMine;
+        Chunk chunk = chunk(row, col);
+        int local = localIndex(row, col);
+        int state = chunk.cells[local];
+        if ((state & (Board.REVEALED | Board.FLAGGED)) != 0) {
+            return MoveResult.NONE;
+        }
+        
+        chunk.cells[local] |= Board.REVEALED;
+        chunk.dirty = true;
+        revealedCells++;
+        if ((state & Board.MINE) != 0) {
+            hitMine = true;
+        } else if ((state & Board.COUNT_MASK) == 0) {
+            floodFill(row, col);
+        }
+        return new MoveResult((int) Math.min(revealedCells - revealedBefore, Integer.MAX_VALUE),
+                hitMine && !hitBefore, false, 0);
+    }
+    
+    public MoveResult toggleFlag(int row, int col) {
+        Chunk chunk = chunk(row, col);
+        int local = localIndex(row, col);
+        if ((chunk.cells[local] & Board.REVEALED) != 0) {
+            return MoveResult.NONE;
+        }
+        chunk.cells[local] ^= Board.FLAGGED;
+        chunk.dirty = true;
+        int delta = (chunk.cells[local] & Board.FLAGGED) != 0 ? 1 : -1;
+        flaggedCells += delta;
+        return new MoveResult(0, false, false, delta);
+    }
+    
+    // Same cascade as Board.floodFill, with squares packed as (row << 32 | col).
+    // The chunk is looked up again for every square, so a chunk evicted in the
+    // middle of a cascade is spilled with everything revealed so far.
+    private void floodFill(int startRow, int startCol) {
+        long[] stack = worklist;
+        int top = 0;
+        stack[top++] = pack(startRow, startCol);
+        
+        while (top > 0) {
+            long square = stack[--top];
+            int row = (int) (square >> 32);
+            int col = (int) square;
+            
+            for (int i = row - 1; i <= row + 1; i++) {
+                for (int j = col - 1; j <= col + 1; j++) {
+                    Chunk chunk = chunk(i, j);
+                    int local = localIndex(i, j);
+                    int state = chunk.cells[local];
+                    if ((state & (Board.REVEALED | Board.FLAGGED)) != 0) continue;
+                    
+                    chunk.cells[local] |= Board.REVEALED;
+                    chunk.dirty = true;
+                    revealedCells++;
+                    
+                    if ((state & Board.COUNT_MASK) == 0) {
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                            worklist = stack;
+                        }
+                        stack[top++] = pack(i, j);
+                    }
+                }
+            }
+        }
+    }
+    
+    // Packed state of a square, using the Board bit layout
+    int getCellState(int row, int col) {
+        return chunk(row, col).cells[localIndex(row, col)];
+    }
+    
+    public boolean hasHitMine() {
+        return hitMine;
+    }
+    
+    public long getRevealedCells() {
+        return revealedCells;
+    }
+    
+    public long getFlaggedCells() {
+        return flaggedCells;
+    }
+    
+    public int getLoadedChunks() {
+        return loaded.size();
+    }
+    
+    // Renders the window with its top-left square at (top, left) in the same
+    // symbols as Board.display()
+    public String display(int top, int left, int height, int width) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = top; i < top + height; i++) {
+            out.writeBytes(String.format("%6d ", i).getBytes(StandardCharsets.US_ASCII));
+            for (int j = left; j < left + width; j++) {
+                out.writeBytes(BoardRenderer.token(getCellState(i, j)));
+            }
+            out.write('\n');
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+    
+    // Writes out every loaded chunk the player has changed
+    public void flush() {
+        for (Map.Entry<Long, Chunk> entry : loaded.entrySet()) {
+            if (entry.getValue().dirty) {
+                spill(entry.getKey(), entry.getValue().cells);
+                entry.getValue().dirty = false;
+            }
+        }
+    }
+    
+    private Chunk chunk(int row, int col) {
+        int chunkRow = row >> CHUNK_BITS;
+        int chunkCol = col >> CHUNK_BITS;
+        long key = pack(chunkRow, chunkCol);
+        Chunk chunk = loaded.get(key);
+        if (chunk == null) {
+            byte[] cells = unspill(key);
+            chunk = cells != null ? new Chunk(cells) : new Chunk(generate(chunkRow, chunkCol));
+            loaded.put(key, chunk);
+        }
+        return chunk;
+    }
+    
+    private static int localIndex(int row, int col) {
+        return (row & CHUNK_MASK) << CHUNK_BITS | (col & CHUNK_MASK);
+    }
+    
+    private static long pack(int high, int low) {
+        return (long) high << 32 | (low & 0xFFFFFFFFL);
+    }
+    
+    // Lays the mines of the chunk and its eight neighbours into a grid with a
+    // one-square halo and counts from that, so border counts are exact
+    private byte[] generate(int chunkRow, int chunkCol) {
+        int haloSize = CHUNK_SIZE + 2;
+        boolean[] mines = new boolean[haloSize * haloSize];
+        for (int di = -1; di <= 1; di++) {
+            for (int dj = -1; dj <= 1; dj++) {
+                long[] rowsOfMines = mineRows(chunkRow + di, chunkCol + dj);
+                for (int r = 0; r < CHUNK_SIZE; r++) {
+                    int haloRow = r + di * CHUNK_SIZE + 1;
+                    if (haloRow < 0 || haloRow >= haloSize || rowsOfMines[r] == 0) continue;
+                    for (int c = 0; c < CHUNK_SIZE; c++) {
+                        int haloCol = c + dj * CHUNK_SIZE + 1;
+                        if (haloCol < 0 || haloCol >= haloSize) continue;
+                        mines[haloRow * haloSize + haloCol] = (rowsOfMines[r] >>> c & 1) != 0;
+                    }
+                }
+            }
+        }
+        
+        byte[] cells = new byte[CHUNK_AREA];
+        for (int r = 0; r < CHUNK_SIZE; r++) {
+            for (int c = 0; c < CHUNK_SIZE; c++) {
+                int center = (r + 1) * haloSize + c + 1;
+                if (mines[center]) {
+                    cells[r << CHUNK_BITS | c] = (byte) Board.MINE;
+                    continue;
+                }
+                int count = 0;
+                for (int i = -1; i <= 1; i++) {
+                    for (int j = -1; j <= 1; j++) {
+                        if (mines[center + i * haloSize + j]) count++;
+                    }
+                }
+                cells[r << CHUNK_BITS | c] = (byte) count;
+            }
+        }
+        return cells;
+    }
+    
+    // One bit per square, one long per row. Floyd sampling as in
+    // Board.placeMines, from a generator seeded by hash(seed, chunk).
+    private long[] mineRows(int chunkRow, int chunkCol) {
+        SplittableRandom random = new SplittableRandom(chunkSeed(chunkRow, chunkCol));
+        long[] rowsOfMines = new long[CHUNK_SIZE];
+        for (int j = CHUNK_AREA - minesPerChunk; j < CHUNK_AREA; j++) {
+            int index = random.nextInt(j + 1);
+            if ((rowsOfMines[index >> CHUNK_BITS] >>> (index & CHUNK_MASK) & 1) != 0) {
+                index = j;
+            }
+            rowsOfMines[index >> CHUNK_BITS] |= 1L << (index & CHUNK_MASK);
+        }
+        
+        for (int row = -1; row <= 1; row++) {
+            for (int col = -1; col <= 1; col++) {
+                if (row >> CHUNK_BITS == chunkRow && col >> CHUNK_BITS == chunkCol) {
+                    rowsOfMines[row & CHUNK_MASK] &= ~(1L << (col & CHUNK_MASK));
+                }
+            }
+        }
+        return rowsOfMines;
+    }
+    
+    private long chunkSeed(int chunkRow, int chunkCol) {
+        return mix(mix(seed ^ chunkRow) + chunkCol);
+    }
+    
+    // MurmurHash3 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+    
+    private void spill(long key, byte[] cells) {
+        if (spillDirectory == null) {
+            spilled.put(key, cells);
+            return;
+        }
+        try {
+            Files.write(spillFile(key), cells);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private byte[] unspill(long key) {
+        if (spillDirectory == null) {
+            return spilled.get(key);
+        }
+        Path file = spillFile(key);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private Path spillFile(long key) {
+        return spillDirectory.resolve("chunk_" + (int) (key >> 32) + "_" + (int) key + ".bin");
+    }
+}
+
+// Memory-mapped board
+// Packed square state in a file instead of on the heap, for boards far
+// larger than a byte[] can index (10^10 squares at 100k x 100k). The file
+// is mapped in 1 GiB segments and indexed with longs; reveals, flags and
+// renders read and write the mapping directly, so a cascade only pages in
+// what it touches and the OS page cache decides what stays resident.
+// Counts are not stored up front, which would mean writing every page at
+// creation: a square gets its count when it is revealed.
+// This is a separate implementation of the reveal, flag and cascade rules,
+// not a storage backend under Board: Board's int indices, worklists and
+// region bookkeeping do not scale to long-indexed files. It has no chord,
+// undo, change log, journal or GameEndListener; moves return a MoveResult.
+// SelfTest plays the same moves on both and checks every square matches.
+// File layout: "MSMB", version, rows, cols, mines, revealed, flagged (longs),
+// hit-mine byte, then one byte per square in the Board bit layout.
+class MappedBoard implements Closeable {
+    private static final int MAGIC = 0x4D534D42;
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1 + 5 * 8 + 1;
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] segments;
+    private final long rows;
+    private final long cols;
+    private final long totalMines;
+    private long revealedCells;
+    private long flaggedCells;
+    private boolean hitMine;
+    private long[] worklist = new long[64];
+    
+    private MappedBoard(FileChannel channel, long rows, long cols, long mines) throws IOException {
+        this.channel = channel;
+        this.rows = rows;
+        this.cols = cols;
+        this.totalMines = mines;
+        long size = rows * cols;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+        for (int k = 0; k < segments.length; k++) {
+            long start = (long) k << SEGMENT_BITS;
+            segments[k] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + start,
+                    Math.min(SEGMENT_MASK + 1, size - start));
+        }
+    }
+    
+    // Creates a new board file. The file starts sparse (all zero bytes), so
+    // only the pages that receive a mine are written here.
+    public static MappedBoard create(Path file, long rows, long cols, long mines, long seed) throws IOException {
+        if (rows <= 0 || cols <= 0 || rows > Integer.MAX_VALUE || cols > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid board size: " + rows + " x " + cols);
+        }
+        if (mines < 0 || mines >= rows * cols) {
+            throw new IllegalArgumentException("Invalid mine count: " + mines);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SPARSE);
+        MappedBoard board = new MappedBoard(channel, rows, cols, mines);
+        board.placeMines(new SplittableRandom(seed));
+        board.writeHeader();
+        return board;
+    }
+    
+    public static MappedBoard open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer in = ByteBuffer.allocate(HEADER_SIZE);
+        while (in.hasRemaining() && channel.read(in) >= 0) {
+            // keep reading until the header is complete
+        }
+        in.flip();
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC || in.get() != VERSION) {
+            channel.close();
+            throw new IllegalArgumentException("Not a mapped board file");
+        }
+        long rows = in.getLong();
+        long cols = in.getLong();
+        long mines = in.getLong();
+        if (channel.size() != HEADER_SIZE + rows * cols) {
+            channel.close();
+            throw new IllegalArgumentException("Truncated mapped board file");
+        }
+        MappedBoard board = new MappedBoard(channel, rows, cols, mines);
+        board.revealedCells = in.getLong();
+        board.flaggedCells = in.getLong();
+        board.hitMine = in.get() != 0;
+        return board;
+    }
+    
+    // Floyd sampling as in Board.placeMines, with long indices
+    private void placeMines(SplittableRandom random) {
+        long size = rows * cols;
+        for (long j = size - totalMines; j < size; j++) {
+            long index = random.nextLong(j + 1);
+            if ((get(index) & Board.MINE) != 0) {
+                index = j;
+            }
+            put(index, (byte) (get(index) | Board.MINE));
+        }
+    }
+    
+    public MoveResult revealCell(long row, long col) {
+        if (!isValidPosition(row, col)) {
+            return MoveResult.NONE;
+        }
+        long index = row * cols + col;
+        int state = get(index);
+        if ((state & (Board.REVEALED | Board.FLAGGED)) != 0) {
+            return MoveResult.NONE;
+        }
+        
+        long revealedBefore = revealedCells;
+        boolean hitBefore = hitMine;
+        if ((state & Board.MINE) != 0) {
+            put(index, (byte) (state | Board.REVEALED));
+            revealedCells++;
+            hitMine = true;
+        } else {
+            int count = countAdjacentMines(index);
+            if (count == 0) {
+                floodFill(index);
+            } else {
+                revealSquare(index, state, count);
+            }
+        }
+        boolean won = !hitMine && revealedCells == rows * cols - totalMines;
+        return new MoveResult((int) Math.min(revealedCells - revealedBefore, Integer.MAX_VALUE),
+                hitMine && !hitBefore, won, 0);
+    }
+    
+    public MoveResult toggleFlag(long row, long col) {
+        if (!isValidPosition(row, col)) {
+            return MoveResult.NONE;
+        }
+        long index = row * cols + col;
+        int state = get(index);
+        if ((state & Board.REVEALED) != 0) {
+            return MoveResult.NONE;
+        }
+        put(index, (byte) (state ^ Board.FLAGGED));
+        int delta = (state & Board.FLAGGED) == 0 ? 1 : -1;
+        flaggedCells += delta;
+        return new MoveResult(0, false, false, delta);
+    }
+    
+    // Scanline cascade with the same result as Board.floodFill. That one keeps
+    // every discovered zero square on its worklist, which for a region this
+    // size could take gigabytes of heap. Here a row is filled one span at a
+    // time, and the worklist holds only one seed per run of hidden zero
+    // squares found above or below a span.
+    private void floodFill(long start) {
+        long[] stack = worklist;
+        int top = 0;
+        stack[top++] = start;
+        
+        while (top > 0) {
+            long seed = stack[--top];
+            int seedState = get(seed);
+            if ((seedState & (Board.REVEALED | Board.FLAGGED)) != 0) continue;
+            
+            long row = seed / cols;
+            long rowStart = row * cols;
+            long left = seed - rowStart;
+            long right = left;
+            revealSquare(seed, seedState, 0);
+            while (left > 0 && extendSpan(rowStart + left - 1)) {
+                left--;
+            }
+            while (right < cols - 1 && extendSpan(rowStart + right + 1)) {
+                right++;
+            }
+            
+            long colStart = Math.max(left - 1, 0);
+            long colEnd = Math.min(right + 1, cols - 1);
+            for (long i = row - 1; i <= row + 1; i += 2) {
+                if (i < 0 || i >= rows) continue;
+                boolean inRun = false;
+                for (long j = colStart; j <= colEnd; j++) {
+                    long index = i * cols + j;
+                    int state = get(index);
+                    boolean hiddenZero = false;
+                    if ((state & (Board.REVEALED | Board.FLAGGED)) == 0) {
+                        int count = countAdjacentMines(index);
+                        if (count == 0) {
+                            hiddenZero = true;
+                        } else {
+                            revealSquare(index, state, count);
+                        }
+                    }
+                    if (hiddenZero && !inRun) {
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                            worklist = stack;
+                        }
+                        stack[top++] = index;
+                    }
+                    inRun = hiddenZero;
+                }
+            }
+        }
+    }
+    
+    // Reveals the next square along a span and reports whether the span goes
+    // on past it, which it does only through hidden zero squares
+    private boolean extendSpan(long index) {
+        int state = get(index);
+        if ((state & (Board.REVEALED | Board.FLAGGED)) != 0) {
+            return false;
+        }
+        int count = countAdjacentMines(index);
+        revealSquare(index, state, count);
+        return count == 0;
+    }
+    
+    private void revealSquare(long index, int state, int count) {
+        put(index, (byte) (state | Board.REVEALED | count));
+        revealedCells++;
+    }
+    
+    private int countAdjacentMines(long index) {
+        long row = index / cols;
+        long col = index - row * cols;
+        long rowEnd = Math.min(row + 1, rows - 1);
+        long colStart = Math.max(col - 1, 0);
+        long colEnd = Math.min(col + 1, cols - 1);
+        int count = 0;
+        for (long i = Math.max(row - 1, 0); i <= rowEnd; i++) {
+            for (long j = colStart; j <= colEnd; j++) {
+                if ((get(i * cols + j) & Board.MINE) != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    
+    // Packed state of a square, in the Board bit layout. Hidden squares have
+    // their count worked out on the spot.
+    int getCellState(long row, long col) {
+        long index = row * cols + col;
+        int state = get(index);
+        if ((state & (Board.REVEALED | Board.MINE)) == 0) {
+            state |= countAdjacentMines(index);
+        }
+        return state;
+    }
+    
+    public boolean hasHitMine() {
+        return hitMine;
+    }
+    
+    public long getRevealedCells() {
+        return revealedCells;
+    }
+    
+    public long getFlaggedCells() {
+        return flaggedCells;
+    }
+    
+    public long getRows() {
+        return rows;
+    }
+    
+    public long getCols() {
+        return cols;
+    }
+    
+    private boolean isValidPosition(long row, long col) {
+        return row >= 0 && row < rows && col >= 0 && col < cols;
+    }
+    
+    // Renders the window with its top-left square at (top, left) in the same
+    // symbols as Board.display(), clipped to the board
+    public String display(long top, long left, int height, int width) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long bottom = Math.min(top + height, rows);
+        long right = Math.min(left + width, cols);
+        for (long i = Math.max(top, 0); i < bottom; i++) {
+            out.writeBytes(String.format("%6d ", i).getBytes(StandardCharsets.US_ASCII));
+            for (long j = Math.max(left, 0); j < right; j++) {
+                out.writeBytes(BoardRenderer.token(get(i * cols + j)));
+            }
+            out.write('\n');
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+    
+    private int get(long index) {
+        return segments[(int) (index >>> SEGMENT_BITS)].get((int) (index & SEGMENT_MASK));
+    }
+    
+    private void put(long index, byte state) {
+        segments[(int) (index >>> SEGMENT_BITS)].put((int) (index & SEGMENT_MASK), state);
+    }
+    
+    private void writeHeader() {
+        header.putInt(0, MAGIC);
+        header.put(4, VERSION);
+        header.putLong(5, rows);
+        header.putLong(13, cols);
+        header.putLong(21, totalMines);
+        header.putLong(29, revealedCells);
+        header.putLong(37, flaggedCells);
+        header.put(45, (byte) (hitMine ? 1 : 0));
+    }
+    
+    // Writes the counters and forces dirty pages to disk
+    public void flush() {
+        writeHeader();
+        header.force();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+    
+    // The mappings stay valid until they are garbage collected; closing only
+    // flushes and releases the channel
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
+
+// Parallel cascade
+// Flood fill for very large cascades. The board is cut into square tiles
+// and the fill runs in rounds. In each round every tile with pending seeds
+// is filled on its own ForkJoinPool worker. A worker writes only squares
+// inside its tile, so no two workers touch the same byte. Neighbours
+// outside the tile become seeds for the next round. The round barrier
+// (joining every task) makes one round's writes visible to the next, and
+// the per-tile reveal counts are summed once at the end. The set of squares
+// revealed is the same closure the sequential floodFill computes.
+class ParallelFloodFill {
+    private static final int TILE_SIZE = 256;
+    
+    private final int rows;
+    private final int cols;
+    private final int tileCols;
+    private final ForkJoinPool pool;
+    
+    // Growable list of square indices
+    private static final class Seeds {
+        int[] items = new int[16];
+        int size;
+        
+        void add(int index) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = index;
+        }
+    }
+    
+    private static final class TileResult {
+        final int revealed;
+        final Seeds outgoing;
+        final Seeds changed;
+        
+        TileResult(int revealed, Seeds outgoing, Seeds changed) {
+            this.revealed = revealed;
+            this.outgoing = outgoing;
+            this.changed = changed;
+        }
+    }
+    
+    ParallelFloodFill(int rows, int cols, ForkJoinPool pool) {
+        this.rows = rows;
+        this.cols = cols;
+        this.tileCols = (cols + TILE_SIZE - 1) / TILE_SIZE;
+        this.pool = pool;
+    }
+    
+    // Cascades from start, a revealed zero square, and returns how many
+    // squares it revealed. If changed is not null it is given every revealed
+    // square on the calling thread once the fill is done.
+    int fill(byte[] cells, int start, IntConsumer changed) {
+        int tileCount = ((rows + TILE_SIZE - 1) / TILE_SIZE) * tileCols;
+        Seeds[] pending = new Seeds[tileCount];
+        List<Integer> active = new ArrayList<>();
+        pending[tileOf(start)] = new Seeds();
+        pending[tileOf(start)].add(start);
+        active.add(tileOf(start));
+        boolean collect = changed != null;
+        int revealed = 0;
+        
+        while (!active.isEmpty()) {
+            List<ForkJoinTask<TileResult>> tasks = new ArrayList<>(active.size());
+            for (int tile : active) {
+                Seeds seeds = pending[tile];
+                pending[tile] = null;
+                tasks.add(pool.submit(() -> fillTile(cells, tile, seeds, start, collect)));
+            }
+            
+            active = new ArrayList<>();
+            for (ForkJoinTask<TileResult> task : tasks) {
+                TileResult result = task.join();
+                revealed += result.revealed;
+                if (collect) {
+                    for (int k = 0; k < result.changed.size; k++) {
+                        changed.accept(result.changed.items[k]);
+                    }
+                }
+                for (int k = 0; k < result.outgoing.size; k++) {
+                    int seed = result.outgoing.items[k];
+                    int tile = tileOf(seed);
+                    if (pending[tile] == null) {
+                        pending[tile] = new Seeds();
+                        active.add(tile);
+                    }
+                    pending[tile].add(seed);
+                }
+            }
+        }
+        return revealed;
+    }
+    
+    // Seeds are squares next to an expanded zero square: each is revealed if
+    // it is still hidden and expanded if it is a zero. The start square was
+    // revealed by the caller, so it is only expanded.
+    private TileResult fillTile(byte[] cells, int tile, Seeds seeds, int start, boolean collect) {
+        int rowStart = (tile / tileCols) * TILE_SIZE;
+        int colStart = (tile % tileCols) * TILE_SIZE;
+        int rowLimit = Math.min(rowStart + TILE_SIZE, rows);
+        int colLimit = Math.min(colStart + TILE_SIZE, cols);
+        Seeds stack = new Seeds();
+        Seeds outgoing = new Seeds();
+        Seeds changed = collect ? new Seeds() : null;
+        int revealed = 0;
+        
+        for (int k = 0; k < seeds.size; k++) {
+            int index = seeds.items[k];
+            if (index == start) {
+                stack.add(index);
+            } else if ((cells[index] & (Board.REVEALED | Board.FLAGGED)) == 0) {
+                cells[index] |= Board.REVEALED;
+                revealed++;
+                if (collect) changed.add(index);
+                if ((cells[index] & Board.COUNT_MASK) == 0) stack.add(index);
+            }
+        }
+        
+        while (stack.size > 0) {
+            int index = stack.items[--stack.size];
+            int row = index / cols;
+            int col = index - row * cols;
+            int rowEnd = Math.min(row + 1, rows - 1);
+            int colFrom = Math.max(col - 1, 0);
+            int colEnd = Math.min(col + 1, cols - 1);
+            
+            for (int i = Math.max(row - 1, 0); i <= rowEnd; i++) {
+                for (int j = colFrom; j <= colEnd; j++) {
+                    int neighbor = i * cols + j;
+                    if (i < rowStart || i >= rowLimit || j < colStart || j >= colLimit) {
+                        outgoing.add(neighbor);
+                        continue;
+                    }
+                    if ((cells[neighbor] & (Board.REVEALED | Board.FLAGGED)) != 0) continue;
+                    
+                    cells[neighbor] |= Board.REVEALED;
+                    revealed++;
+                    if (collect) changed.add(neighbor);
+                    if ((cells[neighbor] & Board.COUNT_MASK) == 0) stack.add(neighbor);
+                }
+            }
+        }
+        return new TileResult(revealed, outgoing, changed);
+    }
+    
+    private int tileOf(int index) {
+        int row = index / cols;
+        int col = index - row * cols;
+        return (row / TILE_SIZE) * tileCols + col / TILE_SIZE;
+    }
+}
+
+// Parallel generation
+// Splits mine placement across bands of rows. The number of mines in each
+// band is drawn from the multivariate hypergeometric distribution (band by
+// band, each draw conditioned on the ones before it), which is exactly how
+// a uniform layout distributes its mines over the bands. Given those counts
+// each band is again uniform, so every band can place its share on its own
+// generator and the layout keeps the distribution of Board.placeMines.
+final class ParallelGeneration {
+    static final int BAND_ROWS = 256;
+    
+    private static final double[] SMALL_LOG_FACTORIALS = new double[256];
+    
+    static {
+        for (int n = 2; n < SMALL_LOG_FACTORIALS.length; n++) {
+            SMALL_LOG_FACTORIALS[n] = SMALL_LOG_FACTORIALS[n - 1] + Math.log(n);
+        }
+    }
+    
+    private ParallelGeneration() {
+    }
+    
+    static int[] splitMines(SplittableRandom random, int[] bandSizes, int mines) {
+        int[] counts = new int[bandSizes.length];
+        long population = 0;
+        for (int size : bandSizes) {
+            population += size;
+        }
+        long remaining = mines;
+        for (int b = 0; b < bandSizes.length; b++) {
+            counts[b] = (int) hypergeometric(random, population, remaining, bandSizes[b]);
+            population -= bandSizes[b];
+            remaining -= counts[b];
+        }
+        return counts;
+    }
+    
+    // Number of successes in draws taken without replacement from population
+    // items, successes of which are marked. Inversion that starts at the mode
+    // and walks outwards with the pmf ratio, so it takes about one step per
+    // unit of standard deviation.
+    static long hypergeometric(SplittableRandom random, long population, long successes, long draws) {
+        long low = Math.max(0, draws - (population - successes));
+        long high = Math.min(draws, successes);
+        if (low == high) {
+            return low;
+        }
+        
+        long mode = (long) ((double) (draws + 1) * (successes + 1) / (population + 2));
+        mode = Math.max(low, Math.min(high, mode));
+        double modeProbability = Math.exp(logChoose(successes, mode)
+                + logChoose(population - successes, draws - mode)
+                - logChoose(population, draws));
+        
+        double u = random.nextDouble() - modeProbability;
+        long up = mode;
+        long down = mode;
+        double upProbability = modeProbability;
+        double downProbability = modeProbability;
+        while (u > 0 && (up < high || down > low)) {
+            if (up < high) {
+                upProbability *= (double) (successes - up) * (draws - up)
+                        / ((double) (up + 1) * (population - successes - draws + up + 1));
+                up++;
+                u -= upProbability;
+                if (u <= 0) {
+                    return up;
+                }
+            }
+            if (down > low) {
+                downProbability *= (double) down * (population - successes - draws + down)
+                        / ((double) (successes - down + 1) * (draws - down + 1));
+                down--;
+                u -= downProbability;
+                if (u <= 0) {
+                    return down;
+                }
+            }
+        }
+        // Either u fell inside the mode's own mass, or rounding left a sliver
+        // of probability unaccounted for, which goes to the mode
+        return mode;
+    }
+    
+    private static double logChoose(long n, long k) {
+        return logFactorial(n) - logFactorial(k) - logFactorial(n - k);
+    }
+    
+    // Stirling series; accurate to double precision for n >= 256
+    private static double logFactorial(long n) {
+        if (n < SMALL_LOG_FACTORIALS.length) {
+            return SMALL_LOG_FACTORIALS[(int) n];
+        }
+        double x = n;
+        double inverse = 1.0 / x;
+        double inverseSquared = inverse * inverse;
+        return x * Math.log(x) - x + 0.5 * Math.log(2 * Math.PI * x)
+                + inverse * (1.0 / 12 - inverseSquared * (1.0 / 360 - inverseSquared / 1260));
+    }
+    
+    // Floyd sampling of count squares out of cells[offset, offset + size),
+    // sampling the safe squares instead above 50% density as placeMines does
+    static void placeBand(byte[] cells, int offset, int size, int count, SplittableRandom random) {
+        boolean mine = count * 2 <= size;
+        int samples = mine ? count : size - count;
+        if (!mine) {
+            for (int i = offset; i < offset + size; i++) {
+                cells[i] |= Board.MINE;
+            }
+        }
+        for (int j = size - samples; j < size; j++) {
+            int index = offset + random.nextInt(j + 1);
+            if (((cells[index] & Board.MINE) != 0) == mine) {
+                index = offset + j;
+            }
+            if (mine) {
+                cells[index] |= Board.MINE;
+            } else {
+                cells[index] &= ~Board.MINE;
+            }
+        }
+    }
+}
+
+// Builder Pattern
+class BoardBuilder {
+    // Above this, solvable layouts get too rare to find within a click
+    private static final double MAX_NO_GUESS_DENSITY = 0.22;
+    
+    private int rows;
+    private int cols;
+    private int mines;
+    private GameDifficulty difficulty;
+    private RandomStrategy randomStrategy;
+    private Long seed;
+    private MoveJournal journal;
+    private boolean lazyGeneration;
+    private boolean safeNeighborhood;
+    private boolean noGuess;
+    private boolean parallelGeneration;
+    private long maxCells = Long.MAX_VALUE;
+    
+    public BoardBuilder() {
+        this.rows = 8;
+        this.cols = 8;
+        this.mines = 10;
+        this.difficulty = GameDifficulty.BEGINNER;
+        this.randomStrategy = RandomStrategy.SPLITTABLE;
+    }
+    
+    // A seeded builder always produces the same layout for the same
+    // rows, cols, mines, seed and strategy
+    public BoardBuilder setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+    
+    public BoardBuilder setRandomStrategy(RandomStrategy randomStrategy) {
+        this.randomStrategy = randomStrategy;
+        return this;
+    }
+    
+    // Defers mine placement to the first reveal so the first click is always safe
+    public BoardBuilder setLazyGeneration(boolean lazyGeneration) {
+        this.lazyGeneration = lazyGeneration;
+        return this;
+    }
+    
+    // With lazy generation, also keeps the first click's neighbours free of mines
+    public BoardBuilder setSafeNeighborhood(boolean safeNeighborhood) {
+        this.safeNeighborhood = safeNeighborhood;
+        return this;
+    }
+    
+    // Generates, on the first reveal, a layout that can be cleared from that
+    // click by deduction alone. Implies lazy generation with a safe neighbourhood.
+    public BoardBuilder setNoGuess(boolean noGuess) {
+        this.noGuess = noGuess;
+        return this;
+    }
+    
+    // Places mines and counts in row bands on the common pool. The layout
+    // has the same distribution as serial generation but, for a given seed,
+    // not the same squares. Not available with lazy or no-guess generation.
+    public BoardBuilder setParallelGeneration(boolean parallelGeneration) {
+        this.parallelGeneration = parallelGeneration;
+        return this;
+    }
+    
+    // Rejects boards of more squares than this, e.g. to hold a server session
+    // to its memory budget
+    public BoardBuilder setMaxCells(long maxCells) {
+        this.maxCells = maxCells;
+        return this;
+    }
+    
+    // Records every move of the built board; requires a seed so the journal can be replayed
+    public BoardBuilder setJournal(MoveJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+    
+    public BoardBuilder setRows(int rows) {
+        this.rows = rows;
+        return this;
+    }
+    
+    public BoardBuilder setCols(int cols) {
+        this.cols = cols;
+        return this;
+    }
+    
+    public BoardBuilder setMines(int mines) {
+        this.mines = mines;
+        return this;
+    }
+    
+    public BoardBuilder setDifficulty(GameDifficulty difficulty) {
+        this.difficulty = difficulty;
+        // Set appropriate dimensions based on difficulty
+        switch (difficulty) {
+            case BEGINNER:
+                this.rows = 8; this.cols = 8; this.mines = 10;
+                break;
+            case INTERMEDIATE:
+                this.rows = 16; this.cols = 16; this.mines = 40;
+                break;
+            case EXPERT:
+                this.rows = 16; this.cols = 30; this.mines = 99;
+                break;
+        }
+        return this;
+    }
+    
+    public Board build() {
+        validateParameters();
+        RandomGenerator random = seed != null ? randomStrategy.create(seed) : randomStrategy.create();
+        boolean deferred = lazyGeneration || noGuess;
+        Board board;
+        if (deferred) {
+            board = Board.deferred(rows, cols, mines, random, safeNeighborhood || noGuess, noGuess);
+        } else if (parallelGeneration) {
+            board = new Board(rows, cols, mines, random, ForkJoinPool.commonPool());
+        } else {
+            board = new Board(rows, cols, mines, random);
+        }
+        if (journal != null) {
+            journal.start(rows, cols, mines, seed, randomStrategy, deferred, safeNeighborhood || noGuess, noGuess,
+                    parallelGeneration);
+            board.setJournal(journal);
+        }
+        return board;
+    }
+    
+    private void validateParameters() {
+        if (rows <= 0 || cols <= 0) {
+            throw new IllegalArgumentException("Rows and columns must be positive");
+        }
+        if ((long) rows * cols > maxCells) {
+            throw new IllegalArgumentException("Board too large");
+        }
+        if (mines <= 0 || mines >= rows * cols) {
+            throw new IllegalArgumentException("Invalid number of mines");
+        }
+        if (randomStrategy == null) {
+            throw new IllegalArgumentException("Random strategy must be set");
+        }
+        if (seed != null && randomStrategy == RandomStrategy.THREAD_LOCAL) {
+            throw new IllegalArgumentException("ThreadLocalRandom cannot be seeded");
+        }
+        if (journal != null && seed == null) {
+            throw new IllegalArgumentException("A move journal requires a seed");
+        }
+        if (noGuess && (mines > rows * cols - 9 || mines > rows * cols * MAX_NO_GUESS_DENSITY)) {
+            throw new IllegalArgumentException("Too many mines for a no-guess board");
+        }
+        if (parallelGeneration && (lazyGeneration || noGuess)) {
+            throw new IllegalArgumentException("Parallel generation cannot be combined with lazy generation");
+        }
+    }
+}
+
+// Singleton Pattern
+class GameManager {
+    private static final Path SAVE_FILE = Paths.get("minesweeper.sav");
+    private static GameManager instance;
+    private Board board;
+    private GameState gameState;
+    private Scanner scanner;
+    private boolean ansiRendering;
+    private AnsiBoardRenderer ansiRenderer;
+    
+    private GameManager() {
+        this.scanner = new Scanner(System.in);
+        this.gameState = GameState.NOT_STARTED;
+    }
+    
+    public static GameManager getInstance() {
+        if (instance == null) {
+            instance = new GameManager();
+        }
+        return instance;
+    }
+    
+    // Redraw only changed squares with ANSI escapes instead of reprinting the board
+    public void setAnsiRendering(boolean ansiRendering) {
+        this.ansiRendering = ansiRendering;
+    }
+    
+    public void startGame() {
+        System.out.println("🎮 Welcome to Minesweeper!");
+        System.out.println("DESIGN PATTERNS USED:");
+        System.out.println("1. Singleton - GameManager");
+        System.out.println("2. Builder - BoardBuilder");
+        System.out.println("3. Abstract Factory - CellFactory");
+        System.out.println("4. Prototype - CellPrototype");
+        
+        if (!resumeSavedGame()) {
+            GameDifficulty difficulty = chooseDifficulty();
+            
+            this.board = new BoardBuilder()
+                    .setDifficulty(difficulty)
+                    .setLazyGeneration(true)
+                    .build();
+            this.gameState = GameState.PLAYING;
+        }
+        board.setUndoEnabled(true);
+        board.addGameEndListener((board, result) -> gameState = result);
+        if (ansiRendering) {
+            this.ansiRenderer = new AnsiBoardRenderer(board);
+        }
+        
+        playGame();
+    }
+    
+    private boolean resumeSavedGame() {
+        if (!Files.exists(SAVE_FILE)) {
+            return false;
+        }
+        System.out.print("\nResume saved game? (y/n): ");
+        if (!scanner.next().startsWith("y")) {
+            return false;
+        }
+        
+        try {
+            BoardSnapshot snapshot = BoardSnapshot.load(SAVE_FILE);
+            if (snapshot.getGameState() != GameState.PLAYING) {
+                System.out.println("Saved game is already over.");
+                return false;
+            }
+            this.board = snapshot.getBoard();
+            this.gameState = snapshot.getGameState();
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not load saved game: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private void saveGame() {
+        try {
+            BoardSnapshot.save(board, gameState, SAVE_FILE);
+            System.out.println("Game saved to " + SAVE_FILE);
+        } catch (IOException | IllegalStateException e) {
+            System.out.println("Could not save game: " + e.getMessage());
+        }
+    }
+    
+    private GameDifficulty chooseDifficulty() {
         System.out.println("\nChoose Difficulty:");
         System.out.println("1. BEGINNER (8x8, 10 mines)");
         System.out.println("2. INTERMEDIATE (16x16, 40 mines)");
@@ -450,7 +4827,6 @@ class GameManager {
         while (gameState == GameState.PLAYING) {
             displayBoard();
             processMove();
-            checkGameState();
         }
         
         displayFinalResult();
@@ -458,13 +4834,41 @@ class GameManager {
     }
     
     private void displayBoard() {
+        if (writeAnsiFrame()) {
+            return;
+        }
         System.out.println("\n" + board.display());
         System.out.println("Mines left: " + board.getRemainingMines());
     }
     
+    private boolean writeAnsiFrame() {
+        if (ansiRenderer == null) {
+            return false;
+        }
+        try {
+            ansiRenderer.writeFrame(System.out);
+            return true;
+        } catch (IOException e) {
+            ansiRenderer = null;
+            return false;
+        }
+    }
+    
     private void processMove() {
-        System.out.print("Enter row, column and action (r for reveal, f for flag): ");
-        int row = scanner.nextInt();
+        System.out.print("Enter row, column and action (r for reveal, f for flag, c for chord), or 'undo', 'redo', 'save': ");
+        String first = scanner.next();
+        if (first.equals("save")) {
+            saveGame();
+            return;
+        }
+        if (first.equals("undo") || first.equals("redo")) {
+            boolean done = first.equals("undo") ? board.undo() : board.redo();
+            if (!done) {
+                System.out.println("Nothing to " + first + ".");
+            }
+            return;
+        }
+        int row = Integer.parseInt(first);
         int col = scanner.nextInt();
         char action = scanner.next().charAt(0);
         
@@ -472,22 +4876,18 @@ class GameManager {
             board.revealCell(row, col);
         } else if (action == 'f') {
             board.toggleFlag(row, col);
+        } else if (action == 'c') {
+            board.chordCell(row, col);
         } else {
-            System.out.println("Invalid action! Use 'r' to reveal or 'f' to flag.");
-        }
-    }
-    
-    private void checkGameState() {
-        if (board.hasHitMine()) {
-            gameState = GameState.LOST;
-        } else if (board.isAllSafeCellsRevealed()) {
-            gameState = GameState.WON;
+            System.out.println("Invalid action! Use 'r' to reveal, 'f' to flag or 'c' to chord.");
         }
     }
     
     private void displayFinalResult() {
         board.revealAll();
-        System.out.println("\n" + board.display());
+        if (!writeAnsiFrame()) {
+            System.out.println("\n" + board.display());
+        }
         
         if (gameState == GameState.WON) {
             System.out.println("🎉 Congratulations! You won!");
@@ -497,11 +4897,296 @@ class GameManager {
     }
 }
 
+// Game session
+// One independent game driven by text commands. Sessions share nothing, so
+// any number of them can run side by side in one JVM.
+class GameSession {
+    private static final byte[] MINES_LEFT = "Mines left: ".getBytes(StandardCharsets.US_ASCII);
+    // A session costs roughly 10 bytes per square (board plus render buffer)
+    // and 16 KB of stream buffers in GameServer, so 4096 squares keeps one
+    // under 60 KB and 10,000 sessions under 600 MB of heap
+    private static final int MAX_BOARD_CELLS = 1 << 12;
+    
+    private Board board;
+    private BoardRenderer renderer;
+    private GameState gameState;
+    
+    public GameSession() {
+        this.gameState = GameState.NOT_STARTED;
+    }
+    
+    public void start(Board board) {
+        this.board = board;
+        this.renderer = new BoardRenderer(board);
+        this.gameState = GameState.PLAYING;
+        board.addGameEndListener(this::gameEnded);
+    }
+    
+    public GameState reveal(int row, int col) {
+        requirePlaying();
+        board.revealCell(row, col);
+        return gameState;
+    }
+    
+    public GameState toggleFlag(int row, int col) {
+        requirePlaying();
+        board.toggleFlag(row, col);
+        return gameState;
+    }
+    
+    public GameState chord(int row, int col) {
+        requirePlaying();
+        board.chordCell(row, col);
+        return gameState;
+    }
+    
+    public GameState getGameState() {
+        return gameState;
+    }
+    
+    public Board getBoard() {
+        return board;
+    }
+    
+    private void requirePlaying() {
+        if (gameState != GameState.PLAYING) {
+            throw new IllegalStateException("No game in progress");
+        }
+    }
+    
+    private void gameEnded(Board board, GameState result) {
+        gameState = result;
+        board.revealAll();
+    }
+    
+    // Commands:
+    //   new beginner|intermediate|expert
+    //   new <rows> <cols> <mines>
+    //   r <row> <col>
+    //   f <row> <col>
+    //   c <row> <col>
+    //   show
+    //   quit
+    // Every response ends with a single "OK <state>" or "ERROR <message>" line.
+    // Returns false once the client asked to quit.
+    public boolean handleCommand(String line, OutputStream out) throws IOException {
+        String[] parts = line.trim().split("\\s+");
+        try {
+            switch (parts[0]) {
+                case "new":
+                    start(parseBoard(parts));
+                    break;
+                case "r":
+                    requireArgs(parts, 3);
+                    reveal(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                    break;
+                case "f":
+                    requireArgs(parts, 3);
+                    toggleFlag(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                    break;
+                case "c":
+                    requireArgs(parts, 3);
+                    chord(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                    break;
+                case "show":
+                    if (board == null) {
+                        throw new IllegalStateException("No game in progress");
+                    }
+                    break;
+                case "quit":
+                    writeLine(out, "OK BYE");
+                    return false;
+                default:
+                    throw new IllegalArgumentException("Unknown command: " + parts[0]);
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            writeLine(out, "ERROR " + e.getMessage());
+            return true;
+        }
+        
+        renderer.writeTo(out);
+        out.write(MINES_LEFT);
+        writeLine(out, Integer.toString(board.getRemainingMines()));
+        writeLine(out, "OK " + gameState);
+        return true;
+    }
+    
+    private static Board parseBoard(String[] parts) {
+        BoardBuilder builder = new BoardBuilder().setLazyGeneration(true).setMaxCells(MAX_BOARD_CELLS);
+        if (parts.length == 2) {
+            builder.setDifficulty(GameDifficulty.valueOf(parts[1].toUpperCase()));
+        } else {
+            requireArgs(parts, 4);
+            builder.setRows(Integer.parseInt(parts[1]))
+                    .setCols(Integer.parseInt(parts[2]))
+                    .setMines(Integer.parseInt(parts[3]));
+        }
+        return builder.build();
+    }
+    
+    private static void requireArgs(String[] parts, int count) {
+        if (parts.length != count) {
+            throw new IllegalArgumentException("Expected " + (count - 1) + " arguments");
+        }
+    }
+    
+    private static void writeLine(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+}
+
+// Game server
+// Line-protocol TCP front end for GameSession. Each connection owns one
+// session and runs on its own virtual thread when the JVM supports them.
+// It only listens on the loopback interface.
+class GameServer {
+    private static final int MAX_LINE_LENGTH = 256;
+    private static final int BACKLOG = 128;
+    
+    private final int port;
+    private final int idleTimeoutMillis;
+    private final Semaphore sessionSlots;
+    private ExecutorService executor;
+    private ServerSocket serverSocket;
+    
+    public GameServer(int port, int maxSessions, int idleTimeoutMillis) {
+        this.port = port;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.sessionSlots = new Semaphore(maxSessions);
+    }
+    
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        executor = newSessionExecutor();
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                break;
+            }
+            if (!sessionSlots.tryAcquire()) {
+                rejectConnection(socket);
+                continue;
+            }
+            executor.execute(() -> {
+                try {
+                    serve(socket);
+                } finally {
+                    sessionSlots.release();
+                }
+            });
+        }
+    }
+    
+    public void stop() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+    
+    public int getLocalPort() {
+        return serverSocket.getLocalPort();
+    }
+    
+    // Virtual threads are looked up reflectively so the game still compiles and
+    // runs on JDKs without them, falling back to a cached platform thread pool.
+    private static ExecutorService newSessionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+    
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setSoTimeout(idleTimeoutMillis);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            GameSession session = new GameSession();
+            StringBuilder line = new StringBuilder(MAX_LINE_LENGTH);
+            
+            while (readLine(in, line)) {
+                if (line.length() > 0 && !session.handleCommand(line.toString(), out)) {
+                    out.flush();
+                    break;
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Client went away or idled out; the session is simply dropped
+        }
+    }
+    
+    private static void rejectConnection(Socket socket) {
+        try (Socket s = socket) {
+            s.getOutputStream().write("ERROR Server full\n".getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            // Nothing to do for a client we are turning away
+        }
+    }
+    
+    // Reads one line into the buffer, dropping anything past MAX_LINE_LENGTH.
+    // Returns false at end of stream.
+    private static boolean readLine(InputStream in, StringBuilder line) throws IOException {
+        line.setLength(0);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                return true;
+            }
+            if (b != '\r' && line.length() < MAX_LINE_LENGTH) {
+                line.append((char) b);
+            }
+        }
+        return line.length() > 0;
+    }
+}
+
 // Main class
 public class MinesweeperGame {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 2 && args[0].equals("--server")) {
+            GameServer server = new GameServer(Integer.parseInt(args[1]), 10_000, 10 * 60 * 1000);
+            System.out.println("Minesweeper server listening on port " + args[1]);
+            server.start();
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("--selftest")) {
+            new SelfTest(System.out).runAll();
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("--bench")) {
+            // --bench [size,size,...] [baseline file]
+            String sizes = args.length >= 2 ? args[1] : "256,1024";
+            Map<String, Double> baseline = args.length >= 3
+                    ? BoardBenchmark.readBaseline(Paths.get(args[2]))
+                    : new HashMap<>();
+            int[] customSizes = Arrays.stream(sizes.split(",")).mapToInt(Integer::parseInt).toArray();
+            new BoardBenchmark(System.out, baseline).runAll(customSizes);
+            return;
+        }
+        if (args.length >= 5 && args[0].equals("--simulate")) {
+            WinRateSimulator simulator = new WinRateSimulator(Integer.parseInt(args[1]),
+                    Integer.parseInt(args[2]), Integer.parseInt(args[3]), SolverStrategy::new);
+            int threads = Runtime.getRuntime().availableProcessors();
+            System.out.println(simulator.run(Long.parseLong(args[4]), threads, System.nanoTime()));
+            return;
+        }
+        
         System.out.println("🚀 Starting Minesweeper Game...");
         GameManager game = GameManager.getInstance();
+        for (String arg : args) {
+            if (arg.equals("--ansi")) {
+                game.setAnsiRendering(true);
+            }
+        }
         game.startGame();
     }
 }
\ No newline at end of file